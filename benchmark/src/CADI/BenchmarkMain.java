@@ -0,0 +1,54 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BenchmarkMain runs the JMH benchmarks. Unless a result format is given on
+ * the command line, results are written as JSON to jmh-result.json so runs
+ * can be compared by tools rather than by eye. Every other argument is
+ * passed to JMH unchanged.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.addAll(Arrays.asList("-rf", "json", "-rff", "jmh-result.json"));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+    }
+
+    /**
+     * initLib sets up the Lib statics the library expects, without the
+     * GUI-oriented Lib constructor.
+     */
+    static synchronized void initLib() {
+        if (Lib.log == null) {
+            Lib.log = new Console.Log();
+            Lib.slash = File.separator;
+            Lib.TempFolder = new File(System.getProperty("java.io.tmpdir"), "CADI-benchmark" + File.separator);
+        }
+    }
+}
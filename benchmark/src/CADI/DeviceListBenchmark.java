@@ -0,0 +1,82 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * DeviceListBenchmark measures Console.getDeviceList and the streaming
+ * Console.getDevices over generated findall output, replayed through a
+ * ReplayBackend so only CADI's own work is timed. The QueryCache is
+ * invalidated before each call so every call parses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DeviceListBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int devices;
+
+    private Console console;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        String findall = InstallerOutput.findall(devices);
+        ArrayList<Transcript.Entry> entries = new ArrayList<>();
+        entries.add(new Transcript.Entry(Transcript.Kind.EXECUTE, "findall USB*", false, true, 0, findall));
+        entries.add(new Transcript.Entry(Transcript.Kind.STREAM, "findall USB*", false, true, 0, findall));
+        console = new Console(new ReplayBackend(entries, ReplayBackend.Speed.AS_FAST_AS_POSSIBLE));
+    }
+
+    @Benchmark
+    public String[] getDeviceList() {
+        QueryCache.invalidate();
+        return console.getDeviceList(false, true);
+    }
+
+    @Benchmark
+    public int getDevices(final Blackhole blackhole) {
+        return console.getDevices(false, true, new DeviceRecord.Listener() {
+            @Override
+            public void deviceFound(DeviceRecord device) {
+                blackhole.consume(device);
+            }
+        });
+    }
+}
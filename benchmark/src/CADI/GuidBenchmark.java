@@ -0,0 +1,74 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GuidBenchmark measures DataType.GUID parsing, formatting and comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GuidBenchmark {
+
+    private static final String TEXT = "f0e1d2c3-b4a5-4697-8889-7a6b5c4d3e2f";
+
+    private DataType dataType;
+    private DataType.GUID guid;
+    private DataType.GUID other;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        dataType = new DataType();
+        guid = dataType.new GUID(0xF0E1D2C3B4A54697L, 0x88897A6B5C4D3E2FL);
+        other = dataType.new GUID(0xF0E1D2C3B4A54697L, 0x88897A6B5C4D3E30L);
+    }
+
+    @Benchmark
+    public DataType.GUID parse() {
+        return guid.fromString(TEXT);
+    }
+
+    @Benchmark
+    public String format() {
+        return guid.toString();
+    }
+
+    @Benchmark
+    public int compare() {
+        return guid.compareTo(other);
+    }
+}
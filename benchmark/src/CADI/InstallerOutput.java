@@ -0,0 +1,108 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.Random;
+
+/**
+ * InstallerOutput builds installer output shaped like captures taken from
+ * flashing stations: findall listings mixing phones, CASUAL driver installs,
+ * hubs and non-USB devices, and dp_enum listings of third party packages.
+ * Output is generated from a fixed seed so runs are comparable.
+ */
+public final class InstallerOutput {
+
+    private static final String[][] USB_DEVICES = new String[][]{
+        {"04E8", "685D", "SAMSUNG Mobile USB Composite Device"},
+        {"04E8", "685D", "CASUAL's Android Device"},
+        {"04E8", "6860", "SAMSUNG Mobile USB Modem"},
+        {"18D1", "4EE0", "Android Bootloader Interface"},
+        {"18D1", "D002", "Samsung Android Device"},
+        {"0BB4", "0C01", "HTC Android Phone"},
+        {"22B8", "2E76", "Motorola ADB Interface"},
+        {"8087", "0024", "Generic USB Hub"},
+        {"046D", "C52B", "USB Composite Device"},
+        {"0B05", "4DAF", "ASUS Android Composite ADB Interface"}
+    };
+
+    private static final String[] OTHER_DEVICES = new String[]{
+        "ACPI\\PNP0303\\4&1D401FB5&0                                   : Standard PS/2 Keyboard",
+        "PCI\\VEN_8086&DEV_1C26&SUBSYS_05311028&REV_05\\3&11583659&0&E8: Intel(R) 6 Series/C200 Series Chipset Family USB Enhanced Host Controller - 1C26",
+        "USB\\ROOT_HUB20\\4&2A0B0B3D&0                                  : USB Root Hub",
+        "ROOT\\LEGACY_BEEP\\0000                                        : Beep"
+    };
+
+    private InstallerOutput() {
+    }
+
+    /**
+     * findall builds findall style output with the given number of device
+     * lines.
+     *
+     * @param devices number of device lines
+     * @return installer output
+     */
+    public static String findall(int devices) {
+        Random random = new Random(devices);
+        StringBuilder sb = new StringBuilder(devices * 96);
+        for (int i = 0; i < devices; i++) {
+            if (random.nextInt(4) == 0) {
+                sb.append(OTHER_DEVICES[random.nextInt(OTHER_DEVICES.length)]).append("\r\n");
+                continue;
+            }
+            String[] device = USB_DEVICES[random.nextInt(USB_DEVICES.length)];
+            String id = "USB\\VID_" + device[0] + "&PID_" + device[1]
+                    + (random.nextBoolean() ? "&MI_0" + random.nextInt(3) : "")
+                    + "\\" + (5 + random.nextInt(3)) + "&" + Integer.toHexString(random.nextInt()).toUpperCase() + "&0&" + random.nextInt(8);
+            sb.append(id);
+            for (int pad = id.length(); pad < 60; pad++) {
+                sb.append(' ');
+            }
+            sb.append(": ").append(device[2]).append("\r\n");
+        }
+        sb.append(devices).append(" matching device(s) found.\r\n");
+        return sb.toString();
+    }
+
+    /**
+     * dpEnum builds dp_enum style output with the given number of driver
+     * packages, roughly one in eight of them being CADI's libusbK package.
+     *
+     * @param packages number of driver packages
+     * @return installer output
+     */
+    public static String dpEnum(int packages) {
+        Random random = new Random(packages);
+        StringBuilder sb = new StringBuilder(packages * 80);
+        sb.append("The following 3rd party Driver Packages are on this machine:\r\n");
+        for (int i = 0; i < packages; i++) {
+            sb.append("oem").append(i).append(".inf\r\n");
+            if (random.nextInt(8) == 0) {
+                sb.append("    Provider: libusbK\r\n");
+                sb.append("    Class: libusbK USB Devices\r\n");
+            } else {
+                sb.append("    Provider: Intel\r\n");
+                sb.append("    Class: System devices\r\n");
+            }
+        }
+        return sb.toString();
+    }
+}
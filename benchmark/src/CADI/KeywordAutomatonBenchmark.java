@@ -0,0 +1,97 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KeywordAutomatonBenchmark scans generated installer output for the
+ * watchdog's restart keywords the way Shell.TimeoutLogger used to (the whole
+ * log copied to a String and tested with endsWith for every keyword, per
+ * character) and through a KeywordAutomaton.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KeywordAutomatonBenchmark {
+
+    static final String[] KEYWORDS = {"Android", "VID_18D1", "matching device(s) found."};
+
+    @Param({"10000", "100000"})
+    public int chars;
+
+    private String output;
+    private KeywordAutomaton automaton;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < chars) {
+            text.append(InstallerOutput.findall(100));
+        }
+        output = text.substring(0, chars);
+        automaton = new KeywordAutomaton(KEYWORDS);
+    }
+
+    @Benchmark
+    public int legacy() {
+        StringBuilder log = new StringBuilder();
+        int resets = 0;
+        for (int i = 0; i < output.length(); i++) {
+            log.append(output.charAt(i));
+            String logstring = log.toString();
+            for (String check : KEYWORDS) {
+                if (logstring.endsWith(check)) {
+                    resets++;
+                }
+            }
+        }
+        return resets;
+    }
+
+    @Benchmark
+    public int automaton() {
+        int state = KeywordAutomaton.START;
+        int resets = 0;
+        for (int i = 0; i < output.length(); i++) {
+            state = automaton.step(state, output.charAt(i));
+            if (automaton.matched(state) >= 0) {
+                resets++;
+            }
+        }
+        return resets;
+    }
+}
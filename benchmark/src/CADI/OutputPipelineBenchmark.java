@@ -0,0 +1,96 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * OutputPipelineBenchmark reads generated findall output, as a process
+ * would deliver it, the way Shell.silentShellCommand used to (a String
+ * concatenated per line) and through the OutputPipeline into a Sink and to a
+ * LineListener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OutputPipelineBenchmark {
+
+    @Param({"1000", "10000"})
+    public int devices;
+
+    private byte[] output;
+    private Charset charset;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        charset = Charset.forName("IBM437");
+        output = InstallerOutput.findall(devices).replace("\n", "\r\n").getBytes(charset);
+    }
+
+    @Benchmark
+    public String legacy() throws IOException {
+        String AllText = "";
+        String line;
+        BufferedReader STDOUT = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(output)));
+        while ((line = STDOUT.readLine()) != null) {
+            AllText = AllText + "\n" + line;
+        }
+        return AllText;
+    }
+
+    @Benchmark
+    public String sink() throws IOException {
+        OutputPipeline.Sink sink = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
+        OutputPipeline.drain(new ByteArrayInputStream(output), charset, sink);
+        return sink.toString();
+    }
+
+    @Benchmark
+    public void lines(final Blackhole blackhole) throws IOException {
+        OutputPipeline.drain(new ByteArrayInputStream(output), charset, new Target.HostSystem.Shell.LineListener() {
+            @Override
+            public void line(String line) {
+                blackhole.consume(line);
+            }
+        });
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import CADI.Console.PatternChoice;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PatternEngineBenchmark compares the single-pass PatternEngine with the
+ * original approach of compiling each REGEX on every call and running one
+ * full-buffer find loop per pattern, and with the same loops over the
+ * Patterns handed out by Console.regexPattern. All three run over generated
+ * findall and dp_enum output of increasing size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PatternEngineBenchmark {
+
+    /**
+     * The expressions as they were before PatternChoice compiled them once.
+     */
+    private static final String[] LEGACY = new String[]{
+        "USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}.*(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])",
+        "USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}.*(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])",
+        "[o|Oe|Em|M]{3}[0-9]{1,4}\\.inf(?=\\s*Provider:\\slibusbK\\s*Class:\\s*libusbK USB Devices)",
+        "USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}(?=.*:)",
+        "(?<=\\s)[0-9]{1,3}?(?=[\\smatching\\sdevice\\(s\\)\\sfound])",
+        "\\S+(?=\\s*:\\s)"
+    };
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private String output;
+    private Console console;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        output = InstallerOutput.findall(lines) + InstallerOutput.dpEnum(lines / 10);
+        console = new Console(new SimulatedBackend());
+    }
+
+    @Benchmark
+    public int[] legacy() {
+        int[] counts = new int[LEGACY.length];
+        for (int i = 0; i < LEGACY.length; i++) {
+            Matcher matcher = Pattern.compile(LEGACY[i]).matcher(output);
+            while (matcher.find()) {
+                counts[i]++;
+            }
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public int[] regexPattern() {
+        int[] counts = new int[PatternChoice.values().length];
+        for (PatternChoice choice : PatternChoice.values()) {
+            Matcher matcher = console.regexPattern(choice).matcher(output);
+            while (matcher.find()) {
+                counts[choice.ordinal()]++;
+            }
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public int[] engine() {
+        final int[] counts = new int[PatternChoice.values().length];
+        PatternEngine.get().scan(output, new PatternEngine.Handler() {
+            @Override
+            public void matched(PatternChoice choice, CharSequence source, int start, int end) {
+                counts[choice.ordinal()]++;
+            }
+        });
+        return counts;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ShellStress runs many slow commands through Target.HostSystem.Shell at
+ * once and checks that waiting for them costs no CPU. Half the commands
+ * finish by themselves; the other half start a child which outlives its
+ * parent and must be killed, tree and all, when their timeout elapses.
+ * <p>
+ * Every command is waited for on its own thread. The harness reports the
+ * CPU time those threads used, the threads CADI added while they waited
+ * (one shared reaper), and how long the killed commands took to return. It
+ * exits with status 1 if waiting burned CPU, a timeout was not enforced, or
+ * a process was left behind.
+ * <p>
+ * On Java 8, where process trees cannot be destroyed, output is read on an
+ * output drain thread per command so the timeout holds although the killed
+ * commands' children keep their pipes open; those threads are reported
+ * apart from the reaper.
+ *
+ * <pre>
+ *     java -cp target/benchmarks.jar CADI.ShellStress [commands] [seconds]
+ * </pre>
+ */
+public class ShellStress {
+
+    /**
+     * MAX_WAIT_CPU_MILLIS is the CPU time a waiting thread may use, mostly
+     * spent starting its process.
+     */
+    static final long MAX_WAIT_CPU_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkMain.initLib();
+        final int commands = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final int timeout = seconds * 1000 / 2;
+        final boolean windows = Target.HostSystem.isCompatible();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final AtomicLong waitCpu = new AtomicLong();
+        final AtomicLong maxWaitCpu = new AtomicLong();
+        final AtomicLong slowestKill = new AtomicLong();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger timedOut = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(commands);
+        final CountDownLatch done = new CountDownLatch(commands);
+        int before = threadsNamed("CADI") - threadsNamed("CADI output drain");
+
+        for (int i = 0; i < commands; i++) {
+            final boolean hang = i % 2 == 1;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String[] cmd = command(windows, hang, hang ? 30 * seconds : seconds);
+                    started.countDown();
+                    long begin = System.nanoTime();
+                    long cpu = threads.getCurrentThreadCpuTime();
+                    String output = new Target.HostSystem.Shell().timeoutShellCommand(cmd, hang ? timeout : 30 * seconds * 1000);
+                    cpu = threads.getCurrentThreadCpuTime() - cpu;
+                    long elapsed = System.nanoTime() - begin;
+                    waitCpu.addAndGet(cpu);
+                    max(maxWaitCpu, cpu);
+                    if (output.startsWith("Timeout!!!")) {
+                        timedOut.incrementAndGet();
+                        max(slowestKill, elapsed);
+                    } else {
+                        completed.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }, "ShellStress " + i);
+            t.start();
+        }
+        started.await();
+        Thread.sleep(Math.min(timeout, 500));
+        int drains = threadsNamed("CADI output drain");
+        int during = threadsNamed("CADI") - drains - before;
+        int jdk = threadsNamed("process reaper");
+        done.await();
+        Thread.sleep(200); //let the reaper finish its last kill
+
+        long maxCpuMillis = TimeUnit.NANOSECONDS.toMillis(maxWaitCpu.get());
+        long killMillis = TimeUnit.NANOSECONDS.toMillis(slowestKill.get());
+        System.out.println("commands:              " + commands + " (" + completed.get() + " completed, " + timedOut.get() + " killed)");
+        System.out.println("process trees:         " + (ProcessSupervisor.canDestroyTrees() ? "destroyed" : "not supported, parents only"));
+        System.out.println("CADI threads added:    " + during + " (the JVM's own process reaper threads: " + jdk + ")");
+        System.out.println("output drain threads:  " + drains + (ProcessSupervisor.canDestroyTrees() ? "" : " (one per command without process trees)"));
+        System.out.println("CPU while waiting:     " + TimeUnit.NANOSECONDS.toMillis(waitCpu.get()) + "ms total, " + maxCpuMillis + "ms worst thread");
+        System.out.println("slowest kill:          " + killMillis + "ms for a " + timeout + "ms timeout");
+        System.out.println("still supervised:      " + ProcessSupervisor.getSupervisedCount() + ", registered: " + ProcessRegistry.running().size());
+
+        boolean ok = maxCpuMillis <= MAX_WAIT_CPU_MILLIS
+                && completed.get() == commands - commands / 2
+                && timedOut.get() == commands / 2
+                && killMillis < timeout + 2000
+                && during <= 1
+                && (ProcessSupervisor.canDestroyTrees() ? drains == 0 : drains <= commands)
+                && ProcessSupervisor.getSupervisedCount() == 0
+                && ProcessRegistry.running().isEmpty();
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * command builds a command which sleeps. A hanging command sleeps in a
+     * child process which keeps the output pipe open after its parent is
+     * killed.
+     */
+    static String[] command(boolean windows, boolean hang, int seconds) {
+        if (windows) {
+            String ping = "ping -n " + (seconds + 1) + " 127.0.0.1 >nul";
+            return new String[]{"cmd.exe", "/C", hang ? "cmd.exe /C \"" + ping + "\"" : ping};
+        }
+        return new String[]{"sh", "-c", hang ? "sleep " + seconds + " & wait" : "sleep " + seconds};
+    }
+
+    private static int threadsNamed(String prefix) {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StringsBenchmark measures the DataType.Strings helpers used on installer
+ * output and command lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StringsBenchmark {
+
+    @Param({"8", "32", "128"})
+    public int length;
+
+    private String padded;
+    private String[] command;
+
+    @Setup
+    public void setup() {
+        BenchmarkMain.initLib();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(' ');
+        }
+        padded = sb + "USB\\VID_04E8&PID_685D\\5&1A2B3C4D&0&1" + sb;
+        command = new String[]{"cmd.exe", "/C", "\"driver_x64.exe update cadi.inf \"USB\\VID_04E8&PID_685D\"\""};
+    }
+
+    @Benchmark
+    public String removeLeadingAndTrailingSpaces() {
+        return DataType.Strings.removeLeadingAndTrailingSpaces(padded);
+    }
+
+    @Benchmark
+    public String generateRandomHexString() {
+        return DataType.Strings.generateRandomHexString(length);
+    }
+
+    @Benchmark
+    public String arrayToString() {
+        return DataType.Strings.arrayToString(command);
+    }
+}
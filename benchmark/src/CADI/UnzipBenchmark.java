@@ -0,0 +1,110 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UnzipBenchmark measures Unzip extracting the bundled driver package:
+ * streaming with unZipInputStream, and from a ZipFile with unzipFile and
+ * unzipFileParallel. The archive is read once in setup so the benchmark
+ * times decompression and file writing rather than resource lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnzipBenchmark {
+
+    private static final String PACKAGE = "/CADI/resource/WinUSB_01011.zip";
+
+    private byte[] archive;
+    private File folder;
+    private File zipFile;
+    private Unzip unzip;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkMain.initLib();
+        try (InputStream in = UnzipBenchmark.class.getResourceAsStream(PACKAGE)) {
+            if (in == null) {
+                throw new IOException(PACKAGE + " not found");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] data = new byte[65536];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                out.write(data, 0, read);
+            }
+            archive = out.toByteArray();
+        }
+        folder = new File(Lib.TempFolder, "unzip-" + System.nanoTime());
+        folder.mkdirs();
+        zipFile = new File(Lib.TempFolder, folder.getName() + ".zip");
+        try (FileOutputStream out = new FileOutputStream(zipFile)) {
+            out.write(archive);
+        }
+        unzip = new Unzip(zipFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        unzip.close();
+        zipFile.delete();
+        new Target.FileSystem().recursiveDelete(folder.getAbsolutePath());
+    }
+
+    @Benchmark
+    public File unZipInputStream() throws IOException {
+        Unzip.unZipInputStream(new BufferedInputStream(new ByteArrayInputStream(archive)), folder.getAbsolutePath());
+        return folder;
+    }
+
+    @Benchmark
+    public File[] unzipFile() throws IOException {
+        return unzip.unzipFile(folder.getAbsolutePath());
+    }
+
+    @Benchmark
+    public File[] unzipFileParallel() throws IOException {
+        return unzip.unzipFileParallel(folder.getAbsolutePath());
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ArchivePool keeps zip archives open between uses so their central
+ * directory is parsed once rather than on every read.
+ * <p>
+ * Each open archive is indexed by entry name when it is opened, giving
+ * constant time lookups, and may be read by any number of threads at once.
+ * Callers lease an archive with acquire and give the lease back by closing
+ * it; an archive is only closed once no lease is left, either because more
+ * than capacity archives are open (least recently used first), because the
+ * file changed on disk, because a lease was given back with closeArchive, or
+ * because closeAll was called.
+ * <p>
+ * An open archive cannot be deleted or replaced on Windows. Callers which
+ * are done with a file, as Unzip is once closed, give their lease back with
+ * closeArchive.
+ */
+public final class ArchivePool {
+
+    /**
+     * DEFAULT_CAPACITY is the number of idle archives the shared pool keeps
+     * open.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static final ArchivePool shared = new ArchivePool(DEFAULT_CAPACITY);
+
+    private final int capacity;
+
+    /**
+     * archives holds the current archive of every path, least recently used
+     * first. Guarded by this.
+     */
+    private final LinkedHashMap<String, Archive> archives = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param capacity number of archives kept open while not leased
+     */
+    public ArchivePool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return the pool shared by Unzip and the PayloadCache
+     */
+    public static ArchivePool shared() {
+        return shared;
+    }
+
+    /**
+     * Archive is one open ZipFile and its index.
+     */
+    private static final class Archive {
+
+        final ZipFile zip;
+        final String path;
+        final long length;
+        final long modified;
+        final HashMap<String, ZipEntry> index = new HashMap<>();
+        int leases;
+        boolean retired;
+
+        Archive(File file, String path, long length, long modified) throws IOException {
+            this.path = path;
+            this.length = length;
+            this.modified = modified;
+            this.zip = new ZipFile(file);
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                index.put(entry.getName(), entry);
+            }
+        }
+
+        boolean isStale(long length, long modified) {
+            return this.length != length || this.modified != modified;
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException ex) {
+                Lib.log.appendLog("ArchivePool() " + ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Reader is a lease on an open archive. Closing it gives the lease
+     * back; streams opened through it must be closed first.
+     */
+    public final class Reader implements Closeable {
+
+        private final Archive archive;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Reader(Archive archive) {
+            this.archive = archive;
+        }
+
+        /**
+         * @param name entry name as stored in the archive
+         * @return the entry, or null if the archive has no such entry
+         */
+        public ZipEntry getEntry(String name) {
+            return archive.index.get(name);
+        }
+
+        /**
+         * @return every entry of the archive, in no particular order
+         */
+        public Collection<ZipEntry> entries() {
+            return Collections.unmodifiableCollection(archive.index.values());
+        }
+
+        /**
+         * getInputStream opens an entry for reading. Streams of different
+         * entries, or the same entry, may be read by different threads at
+         * the same time.
+         *
+         * @param entry entry to read
+         * @return the entry's inflated contents
+         * @throws IOException if the entry cannot be read
+         */
+        public InputStream getInputStream(ZipEntry entry) throws IOException {
+            return archive.zip.getInputStream(entry);
+        }
+
+        /**
+         * @param name entry name as stored in the archive
+         * @return the entry's inflated contents
+         * @throws FileNotFoundException if the archive has no such entry
+         * @throws IOException if the entry cannot be read
+         */
+        public InputStream getInputStream(String name) throws IOException {
+            ZipEntry entry = getEntry(name);
+            if (entry == null) {
+                throw new FileNotFoundException("@entryNotFound " + name + " in " + archive.path);
+            }
+            return getInputStream(entry);
+        }
+
+        /**
+         * @return the open ZipFile, valid until this Reader is closed
+         */
+        ZipFile getZipFile() {
+            return archive.zip;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(archive, false);
+            }
+        }
+
+        /**
+         * closeArchive gives the lease back and closes the archive as soon
+         * as no other lease is left, instead of keeping it open for later
+         * use, so the file can be deleted or replaced.
+         */
+        public void closeArchive() {
+            if (closed.compareAndSet(false, true)) {
+                release(archive, true);
+            }
+        }
+    }
+
+    /**
+     * acquire leases an archive, opening and indexing it unless it is
+     * already open and unchanged on disk. The archive is opened outside the
+     * pool's lock, so a large central directory does not hold up leases of
+     * other archives.
+     *
+     * @param file zip archive
+     * @return a Reader, which must be closed after use
+     * @throws IOException if the archive cannot be opened
+     */
+    public Reader acquire(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        long length = file.length();
+        long modified = file.lastModified();
+        Reader reader = lease(path, length, modified);
+        if (reader != null) {
+            return reader;
+        }
+        Archive opened = new Archive(file, path, length, modified);
+        synchronized (this) {
+            reader = lease(path, length, modified);
+            if (reader == null) {
+                archives.put(path, opened);
+                opened.leases++;
+                trim();
+                return new Reader(opened);
+            }
+        }
+        opened.close(); //another thread opened it meanwhile
+        return reader;
+    }
+
+    /**
+     * lease leases the open archive of a path if it is unchanged on disk,
+     * retiring it if it changed.
+     *
+     * @return a Reader, or null if the archive must be opened
+     */
+    private synchronized Reader lease(String path, long length, long modified) {
+        Archive archive = archives.get(path);
+        if (archive == null) {
+            return null;
+        }
+        if (archive.isStale(length, modified)) {
+            retire(archive);
+            return null;
+        }
+        archive.leases++;
+        return new Reader(archive);
+    }
+
+    /**
+     * openStream opens one entry of an archive. The archive stays leased
+     * until the stream is closed.
+     *
+     * @param file zip archive
+     * @param name entry name as stored in the archive
+     * @return the entry's inflated contents
+     * @throws IOException if the archive or entry cannot be read
+     */
+    public InputStream openStream(File file, String name) throws IOException {
+        final Reader reader = acquire(file);
+        try {
+            return new FilterInputStream(reader.getInputStream(name)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        reader.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return number of archives currently open, leased or not
+     */
+    public synchronized int size() {
+        return archives.size();
+    }
+
+    /**
+     * close forgets the archive of a file, closing it now if it is not
+     * leased and otherwise as soon as its last lease is given back.
+     *
+     * @param file zip archive
+     * @throws IOException if the file's path cannot be resolved
+     */
+    public void close(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        synchronized (this) {
+            Archive archive = archives.get(path);
+            if (archive != null) {
+                retire(archive);
+            }
+        }
+    }
+
+    /**
+     * closeAll closes every archive which is not leased, and every other one
+     * as soon as its last lease is given back.
+     */
+    public synchronized void closeAll() {
+        for (Archive archive : archives.values().toArray(new Archive[archives.size()])) {
+            retire(archive);
+        }
+    }
+
+    private synchronized void release(Archive archive, boolean close) {
+        if (close && !archive.retired) {
+            retire(archive);
+        }
+        archive.leases--;
+        if (archive.leases == 0) {
+            if (archive.retired) {
+                archive.close();
+            } else {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * retire forgets an archive, closing it now if it is not leased.
+     */
+    private void retire(Archive archive) {
+        if (archives.get(archive.path) == archive) {
+            archives.remove(archive.path);
+        }
+        archive.retired = true;
+        if (archive.leases == 0) {
+            archive.close();
+        }
+    }
+
+    /**
+     * trim closes the least recently used idle archives while more than
+     * capacity archives are open.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Archive>> it = archives.entrySet().iterator();
+        int excess = archives.size() - capacity;
+        while (excess > 0 && it.hasNext()) {
+            Archive archive = it.next().getValue();
+            if (archive.leases == 0) {
+                it.remove();
+                archive.retired = true;
+                archive.close();
+                excess--;
+            }
+        }
+    }
+}
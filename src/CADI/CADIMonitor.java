@@ -0,0 +1,172 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * CADIMonitor exposes CADI's runtime state through the platform MBean
+ * server, so a JVM blocked in a driver operation can be inspected and
+ * unblocked from any JMX console.
+ */
+public class CADIMonitor implements CADIMonitorMXBean {
+
+    public static final String OBJECT_NAME = "CADI:type=Monitor";
+
+    private static boolean registered = false;
+
+    /**
+     * register adds the monitor to the platform MBean server. Calling it
+     * again does nothing.
+     *
+     * @return true if the monitor is registered
+     */
+    public static synchronized boolean register() {
+        if (registered) {
+            return true;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new CADIMonitor(), name);
+            }
+            registered = true;
+        } catch (JMException | SecurityException ex) {
+            Lib.log.appendLog("CADIMonitor() could not register " + OBJECT_NAME + ": " + ex.getLocalizedMessage());
+        }
+        return registered;
+    }
+
+    /**
+     * unregister removes the monitor from the platform MBean server.
+     */
+    public static synchronized void unregister() {
+        if (!registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException ex) {
+            Lib.log.appendLog("CADIMonitor() could not unregister " + OBJECT_NAME + ": " + ex.getLocalizedMessage());
+        }
+        registered = false;
+    }
+
+    @Override
+    public String[] getRunningCommands() {
+        ArrayList<ProcessRegistry.Entry> entries = ProcessRegistry.running();
+        String[] commands = new String[entries.size()];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = entries.get(i).toString();
+        }
+        return commands;
+    }
+
+    @Override
+    public long getOldestCommandAge() {
+        ArrayList<ProcessRegistry.Entry> entries = ProcessRegistry.running();
+        return entries.isEmpty() ? 0 : entries.get(0).age();
+    }
+
+    @Override
+    public boolean isDriverExtracted() {
+        return Console.isDriverExtracted();
+    }
+
+    @Override
+    public String getTempFolder() {
+        return Lib.TempFolder == null ? null : Lib.TempFolder.toString();
+    }
+
+    @Override
+    public int getOpenArchives() {
+        return ArchivePool.shared().size();
+    }
+
+    @Override
+    public int getLogSize() {
+        return Console.Log.getBuffer().size();
+    }
+
+    @Override
+    public int getLogCapacity() {
+        return Console.Log.getBuffer().capacity();
+    }
+
+    @Override
+    public long getLogAppended() {
+        return Console.Log.getBuffer().appended();
+    }
+
+    @Override
+    public String[] getCommandMetrics() {
+        ArrayList<String> lines = new ArrayList<>();
+        for (CommandMetrics.Snapshot snapshot : CommandMetrics.snapshot().values()) {
+            lines.add(snapshot.toString());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public long getInstalledCount() {
+        return Interface.getInstalledCount();
+    }
+
+    @Override
+    public long getInstallFailureCount() {
+        return Interface.getInstallFailureCount();
+    }
+
+    @Override
+    public long getRemovedCount() {
+        return Interface.getRemovedCount();
+    }
+
+    @Override
+    public long getRemoveFailureCount() {
+        return Interface.getRemoveFailureCount();
+    }
+
+    @Override
+    public long getPackagesDeletedCount() {
+        return Interface.getPackagesDeletedCount();
+    }
+
+    @Override
+    public long getLatencyPercentile(String verb, double percentile) {
+        return CommandMetrics.snapshot(verb).percentile(percentile);
+    }
+
+    @Override
+    public void clearLog() {
+        Console.Log.getBuffer().clear();
+    }
+
+    @Override
+    public int cancelRunningCommands() {
+        return ProcessRegistry.cancelAll();
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+/**
+ * CADIMonitorMXBean is the JMX management interface of a running CADI,
+ * registered as {@value CADIMonitor#OBJECT_NAME}.
+ */
+public interface CADIMonitorMXBean {
+
+    /**
+     * @return running installer commands as "#id ageMs command", oldest
+     * first
+     */
+    String[] getRunningCommands();
+
+    /**
+     * @return age in milliseconds of the oldest running command, 0 if none
+     */
+    long getOldestCommandAge();
+
+    boolean isDriverExtracted();
+
+    String getTempFolder();
+
+    /**
+     * @return number of zip archives held open by the shared ArchivePool
+     */
+    int getOpenArchives();
+
+    /**
+     * @return number of records currently held by the log buffer
+     */
+    int getLogSize();
+
+    int getLogCapacity();
+
+    /**
+     * @return number of records appended to the log since start-up
+     */
+    long getLogAppended();
+
+    /**
+     * @return one line of counters and latency percentiles per command verb
+     */
+    String[] getCommandMetrics();
+
+    long getInstalledCount();
+
+    long getInstallFailureCount();
+
+    long getRemovedCount();
+
+    long getRemoveFailureCount();
+
+    long getPackagesDeletedCount();
+
+    /**
+     * getLatencyPercentile reports a latency percentile for one verb.
+     *
+     * @param verb command verb, e.g. "update"
+     * @param percentile between 0 and 100
+     * @return latency in microseconds
+     */
+    long getLatencyPercentile(String verb, double percentile);
+
+    void clearLog();
+
+    /**
+     * cancelRunningCommands cancels every running installer command.
+     *
+     * @return number of commands cancelled
+     */
+    int cancelRunningCommands();
+}
@@ -0,0 +1,145 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums computes CRC-32 and SHA-256 over bytes as they are
+ * copied, so a file can be verified against a zip's metadata or a manifest
+ * without reading it a second time.
+ */
+public final class Checksums {
+
+    public enum Algorithm {
+
+        CRC32, SHA256
+    }
+
+    private Checksums() {
+    }
+
+    /**
+     * mismatch builds the exception thrown when a checksum differs from the
+     * expected value.
+     *
+     * @param what the file or entry checked
+     * @param algorithm name of the checksum
+     * @param expected expected value in hexadecimal
+     * @param actual computed value in hexadecimal
+     * @return an IOException describing the mismatch
+     */
+    static IOException mismatch(String what, String algorithm, String expected, String actual) {
+        String message = "@checksumMismatch " + what + " " + algorithm + " expected " + expected + " but was " + actual;
+        Lib.log.appendLog(message);
+        return new IOException(message);
+    }
+
+    /**
+     * Digest accumulates the selected checksums of everything passed to
+     * update. A Digest is used by one thread.
+     */
+    public static final class Digest {
+
+        private final CRC32 crc32;
+        private final MessageDigest sha256;
+        private long length;
+
+        /**
+         * @param algorithms checksums to compute; none computes only the
+         * length
+         */
+        public Digest(Algorithm... algorithms) {
+            EnumSet<Algorithm> selected = EnumSet.noneOf(Algorithm.class);
+            for (Algorithm algorithm : algorithms) {
+                selected.add(algorithm);
+            }
+            crc32 = selected.contains(Algorithm.CRC32) ? new CRC32() : null;
+            MessageDigest sha = null;
+            if (selected.contains(Algorithm.SHA256)) {
+                try {
+                    sha = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException ex) {
+                    Lib.log.appendLog("Checksums() SHA-256 unavailable: " + ex.getLocalizedMessage());
+                }
+            }
+            sha256 = sha;
+        }
+
+        public void update(byte[] data, int offset, int count) {
+            length += count;
+            if (crc32 != null) {
+                crc32.update(data, offset, count);
+            }
+            if (sha256 != null) {
+                sha256.update(data, offset, count);
+            }
+        }
+
+        /**
+         * @return number of bytes passed to update
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return the CRC-32, -1 if not selected
+         */
+        public long crc32() {
+            return crc32 == null ? -1 : crc32.getValue();
+        }
+
+        /**
+         * sha256 completes the SHA-256; call it once all bytes were passed.
+         *
+         * @return the SHA-256 in lower case hexadecimal, null if not
+         * selected
+         */
+        public String sha256() {
+            if (sha256 == null) {
+                return null;
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha256.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+
+        /**
+         * verifyCrc32 compares the CRC-32 with an expected value.
+         *
+         * @param what the file or entry checked, for the message
+         * @param expected expected CRC-32, -1 if unknown
+         * @throws IOException if the values differ
+         */
+        public void verifyCrc32(String what, long expected) throws IOException {
+            if (expected != -1 && crc32 != null && crc32.getValue() != expected) {
+                throw mismatch(what, "CRC-32", Long.toHexString(expected), Long.toHexString(crc32.getValue()));
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CommandMetrics keeps latency histograms and outcome counters for installer
+ * commands, per command verb, plus the process launches underneath them.
+ * <p>
+ * Every verb has a fixed set of slots allocated up front, so recording is a
+ * handful of atomic increments and memory never grows. Latencies go into a
+ * log-linear (HDR style) histogram: each power of two range of microseconds
+ * is split into 16 buckets, which keeps every recorded value within about 6%
+ * of its true value from 1 microsecond up to several days.
+ */
+public final class CommandMetrics {
+
+    /**
+     * VERBS are the installer verbs tracked individually. BATCH covers
+     * chained invocations, SHELL and ELEVATED the process launches made by
+     * Target.HostSystem.Shell and the ElevationBroker helper, and OTHER every
+     * remaining verb.
+     */
+    public static final String[] VERBS = {"find", "findall", "update", "remove", "dp_delete", "dp_enum", "rescan"};
+    public static final String BATCH = "batch";
+    public static final String SHELL = "shell";
+    public static final String ELEVATED = "elevated";
+    public static final String OTHER = "other";
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final String[] names;
+    private static final Stats[] stats;
+
+    static {
+        names = new String[VERBS.length + 4];
+        System.arraycopy(VERBS, 0, names, 0, VERBS.length);
+        names[VERBS.length] = BATCH;
+        names[VERBS.length + 1] = SHELL;
+        names[VERBS.length + 2] = ELEVATED;
+        names[VERBS.length + 3] = OTHER;
+        stats = new Stats[names.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    public enum Outcome {
+
+        SUCCESS, FAILURE, TIMEOUT
+    }
+
+    private CommandMetrics() {
+    }
+
+    private static final class Stats {
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+        final AtomicLong successes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong elevationRetries = new AtomicLong();
+    }
+
+    private static Stats stats(String verb) {
+        for (int i = 0; i < names.length - 1; i++) {
+            if (names[i].equals(verb)) {
+                return stats[i];
+            }
+        }
+        return stats[names.length - 1];
+    }
+
+    /**
+     * bucket maps a value to its histogram bucket. Values below 16 have a
+     * bucket each; above that, the top five significant bits pick the
+     * bucket within the value's power of two range.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * bucketLimit is the largest value that falls into a bucket.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * record counts one finished command.
+     *
+     * @param verb command verb as returned by ElevationBroker.verbOf, or one
+     * of BATCH, SHELL or ELEVATED
+     * @param startNanos System.nanoTime() taken when the command started
+     * @param outcome how the command ended
+     */
+    public static void record(String verb, long startNanos, Outcome outcome) {
+        Stats s = stats(verb);
+        long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+        s.buckets.incrementAndGet(bucket(micros));
+        s.totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = s.maxMicros.get()) && !s.maxMicros.compareAndSet(max, micros)) {
+            //another thread raised the maximum, compare again
+        }
+        switch (outcome) {
+            case SUCCESS:
+                s.successes.incrementAndGet();
+                break;
+            case FAILURE:
+                s.failures.incrementAndGet();
+                break;
+            default:
+                s.timeouts.incrementAndGet();
+        }
+    }
+
+    /**
+     * recordElevationRetry counts a command retried with the elevated
+     * installer after its unelevated attempt failed.
+     *
+     * @param verb command verb
+     */
+    public static void recordElevationRetry(String verb) {
+        stats(verb).elevationRetries.incrementAndGet();
+    }
+
+    /**
+     * outcomeOf classifies installer output the way sendCommand reports
+     * it.
+     *
+     * @param output installer output
+     * @return TIMEOUT, FAILURE or SUCCESS
+     */
+    static Outcome outcomeOf(String output) {
+        if (output == null || output.startsWith("Timeout!!!")) {
+            return Outcome.TIMEOUT;
+        }
+        return output.contains(" failed") ? Outcome.FAILURE : Outcome.SUCCESS;
+    }
+
+    /**
+     * snapshot copies the current metrics of every verb.
+     *
+     * @return one Snapshot per verb, in VERBS order followed by BATCH, SHELL,
+     * ELEVATED and OTHER
+     */
+    public static LinkedHashMap<String, Snapshot> snapshot() {
+        LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            snapshots.put(names[i], new Snapshot(names[i], stats[i]));
+        }
+        return snapshots;
+    }
+
+    /**
+     * snapshot copies the current metrics of a single verb.
+     *
+     * @param verb command verb
+     * @return the verb's Snapshot
+     */
+    public static Snapshot snapshot(String verb) {
+        Stats s = stats(verb);
+        for (int i = 0; i < stats.length; i++) {
+            if (stats[i] == s) {
+                return new Snapshot(names[i], s);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * reset zeroes every histogram and counter.
+     */
+    public static void reset() {
+        for (Stats s : stats) {
+            for (int i = 0; i < BUCKETS; i++) {
+                s.buckets.set(i, 0);
+            }
+            s.totalMicros.set(0);
+            s.maxMicros.set(0);
+            s.successes.set(0);
+            s.failures.set(0);
+            s.timeouts.set(0);
+            s.elevationRetries.set(0);
+        }
+    }
+
+    /**
+     * Snapshot is a point in time copy of one verb's metrics. Latencies are
+     * in microseconds.
+     */
+    public static final class Snapshot {
+
+        public final String verb;
+        public final long count;
+        public final long successes;
+        public final long failures;
+        public final long timeouts;
+        public final long elevationRetries;
+        public final long totalMicros;
+        public final long maxMicros;
+        private final long[] buckets = new long[BUCKETS];
+
+        private Snapshot(String verb, Stats s) {
+            this.verb = verb;
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = s.buckets.get(i);
+                total += buckets[i];
+            }
+            this.count = total;
+            this.successes = s.successes.get();
+            this.failures = s.failures.get();
+            this.timeouts = s.timeouts.get();
+            this.elevationRetries = s.elevationRetries.get();
+            this.totalMicros = s.totalMicros.get();
+            this.maxMicros = s.maxMicros.get();
+        }
+
+        /**
+         * percentile estimates a latency percentile from the histogram.
+         *
+         * @param percentile between 0 and 100
+         * @return upper bound in microseconds of the bucket holding the
+         * percentile, never more than the recorded maximum; 0 if nothing was
+         * recorded
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(bucketLimit(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        public long meanMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        @Override
+        public String toString() {
+            return verb + " count=" + count + " success=" + successes + " failure=" + failures
+                    + " timeout=" + timeouts + " elevationRetry=" + elevationRetries
+                    + " meanUs=" + meanMicros() + " p50Us=" + percentile(50) + " p90Us=" + percentile(90)
+                    + " p99Us=" + percentile(99) + " maxUs=" + maxMicros;
+        }
+    }
+}
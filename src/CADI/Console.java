@@ -20,12 +20,24 @@
  */
 package CADI;
 
-import CADI.Target.HostSystem;
 import CADI.Target.HostSystem.Shell;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 /**
@@ -36,18 +48,54 @@ public class Console {
 
     public static String[][] Vendor = new String[][]{new String[]{"0x0502", "0x1F3A", "0x1B8E", "0x16D5", "0x0E79", "0x0B05", "0x1D91", "0x1219", "0x413C", "0x03FC", "0x297F", "0x2207", "0x0489", "0x04C5", "0x0F1C", "0x091E", "0x0414", "0x1E85", "0x18D1", "0x201E", "0x19A5", "0x109B", "0x03F0", "0x0BB4", "0x12D1", "0x2314", "0x8087", "0x2420", "0x24E3", "0x2116", "0x2237", "0x0482", "0x1949", "0x17EF", "0x2006", "0x1004", "0x25E3", "0x22B8", "0x0DB0", "0x0E8D", "0x0409", "0x2080", "0x0955", "0x22D9", "0x2257", "0x2836", "0x10A9", "0x1D4D", "0x0471", "0x04DA", "0x1662", "0x1D45", "0x05C6", "0x0408", "0x2207", "0x04E8", "0x04DD", "0x1F53", "0x054C", "0x0FCE", "0x1BBB", "0x1D09", "0x2340", "0x0451", "0x0930", "0xE040", "0x0531", "0x2717", "0x2916", "0x1EBF", "0x19D2"}, new String[]{"Acer", "Allwinner", "Amlogic", "AnyDATA", "Archos", "Asus", "BYD", "Compal", "Dell", "ECS", "Emerging Technologies", "Emerson-Rockchip", "Foxconn", "Fujitsu", "Funai", "Garmin-Asus", "Gigabyte", "Gigaset", "Google", "Haier", "Harris", "Hisense", "Hewlett-Packard", "HTC", "Huawei", "Inq Mobile", "Intel", "iRiver", "K-Touch", "KT-Tech", "Kobo", "Kyocera", "LAB126", "Lenovo", "Lenovo Mobile", "LGE", "Lumigon", "Motorola", "MSI", "MTK", "NEC", "Barnes & Noble", "nVidia", "OPPO", "OTGV", "OUYA", "Pantech", "Pegatron", "Phillips", "PMC", "Positivo", "OISDA", "Qualcomm", "Quanta", "Samsung", "Sharp", "SK Telesys", "Sony", "Sony-Ericsson", "T & A", "Techfaith", "Teleepoch", "Texas Instruments", "Toshiba", "Vizio", "Wacom", "Xiaomi", "Yota", "Yulong", "ZTE"}};
 
+    /**
+     * vendorName looks up the name of a USB vendor.
+     *
+     * @param vid a String containing a four character USB vendor ID code in
+     * hexadecimal, with or without a leading "0x"
+     * @return the vendor name, or "Unknown"
+     */
     public String vendorName(String vid) {
-        for (int x = 0; x < Vendor[0].length; x++) {
-            if (Vendor[x].toString().contains(vid)) {
-                return Vendor[0][x].toString();
-            }
+        String hex = vid.trim();
+        if (hex.startsWith("0x") || hex.startsWith("0X")) {
+            hex = hex.substring(2);
+        }
+        String name = null;
+        try {
+            name = UsbIds.get().vendorName(Integer.parseInt(hex, 16));
+        } catch (NumberFormatException ex) {
+            Lib.log.appendLog("vendorName() invalid VID " + vid);
         }
-        return "Unknown";
+        return name == null ? "Unknown" : name;
     }
 
+    /**
+     * PatternChoice names the REGEX patterns used to parse installer output.
+     * Each pattern is compiled once, when the enum is loaded. Unbounded
+     * ".*" scans are written as possessive, line-bounded character classes
+     * so a failed lookahead cannot backtrack across long lines.
+     */
     public enum PatternChoice {
 
-        ORPHANS, CASUALDRIVER, INF, INSTALL, MATCHINGDEVICES, ALLDEVICES
+        ORPHANS("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}[^:\\r\\n]*+(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])"),
+        CASUALDRIVER("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}[^:\\r\\n]*+(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])"),
+        INF("[o|Oe|Em|M]{3}[0-9]{1,4}\\.inf(?=\\s*Provider:\\slibusbK\\s*Class:\\s*libusbK USB Devices)"),
+        INSTALL("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}(?=[^\\r\\n]*:)"),
+        MATCHINGDEVICES("(?<=\\s)[0-9]{1,3}?(?=[\\smatching\\sdevice\\(s\\)\\sfound])"),
+        ALLDEVICES("[^\\s:]++(?=[ \\t]*+:(?:\\s|$))");
+
+        private final Pattern pattern;
+
+        PatternChoice(String regex) {
+            this.pattern = Pattern.compile(regex);
+        }
+
+        /**
+         * @return the compiled Pattern for this choice
+         */
+        public Pattern pattern() {
+            return pattern;
+        }
     }
 
     /**
@@ -58,50 +106,131 @@ public class Console {
     private final String pathToCADI;
 
     /**
-     * driverExtracted this static member is toggled true upon a successful
-     * driver package decompression.
-     *
+     * CADI Windows Driver for 64bit Windows Vista and higher.
      */
-    private static volatile boolean driverExtracted = false;
+    private final static String usbDriverPackage = "/CADI/resource/WinUSB_01011.zip";
 
     /**
-     * CADI Windows Driver for 64bit Windows Vista and higher.
+     * backendOverride replaces the installer executables for every Console
+     * created afterwards, e.g. with a SimulatedBackend.
      */
-    private final static String usbDriverPackage = "/CADI/driver/WinUSB_01011.zip";
+    private static volatile DriverBackend backendOverride = null;
+
+    private final DriverBackend backend;
 
     public Console() {
-        this.pathToCADI = Lib.TempFolder.toString() + "CADI" + Lib.slash;
-        if (!driverExtracted) {
-            try {
-                driverExtract(pathToCADI);
-            } catch (FileNotFoundException ex) {
-                Lib.log.appendLog(ex.getLocalizedMessage());
-                return;
-            } catch (IOException ex) {
-                Lib.log.appendLog(ex.getLocalizedMessage());
-                return;
-            }
-            driverExtracted = true;
+        this(backendOverride);
+    }
+
+    /**
+     * @param backend runs installer commands; null for the bundled
+     * installer executables, whose files are taken from the PayloadCache
+     * and written there the first time a command needs them. Other backends
+     * never see the driver package, so its folder is not looked up for them
+     * and commands name it Transcript.PAYLOAD.
+     */
+    public Console(DriverBackend backend) {
+        if (backend instanceof ExecutableBackend) {
+            this.pathToCADI = ((ExecutableBackend) backend).getPath();
+        } else if (backend == null) {
+            this.pathToCADI = driverPath();
+        } else {
+            this.pathToCADI = Transcript.PAYLOAD + "/";
         }
+        this.backend = backend != null ? backend : new ExecutableBackend(pathToCADI, usbDriverPackage);
     }
 
     /**
-     * driverExtract extracts the contents of CADI.zip from CASUAL's resources
+     * driverPath locates the driver package in the PayloadCache.
      *
-     * @param pathToExtract the desired destination folders full path.
+     * @return the package folder, ending with a separator
+     */
+    private static String driverPath() {
+        try {
+            return PayloadCache.folder(usbDriverPackage).getPath() + File.separator;
+        } catch (IOException ex) {
+            Lib.log.appendLog("driverPath() driver package unavailable: " + ex.getLocalizedMessage());
+            return (Lib.TempFolder == null ? "" : Lib.TempFolder.toString()) + "CADI" + File.separator;
+        }
+    }
+
+    /**
+     * setDefaultBackend sets the backend of Consoles created with the no
+     * argument constructor.
      *
-     * @throws FileNotFoundException
-     * @throws IOException
+     * @param backend backend to use, or null for the installer executables
+     */
+    public static void setDefaultBackend(DriverBackend backend) {
+        backendOverride = backend;
+    }
+
+    /**
+     * @return the backend set by setDefaultBackend, or null
+     */
+    public static DriverBackend getDefaultBackend() {
+        return backendOverride;
+    }
+
+    /**
+     * @return the backend running this Console's installer commands
+     */
+    public DriverBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * recording receives every installer command while a recording is
+     * running.
+     */
+    private static volatile Transcript.Writer recording = null;
+
+    /**
+     * startRecording writes every installer command run by any Console,
+     * with its output and duration, to a transcript file until
+     * stopRecording is called. A ReplayBackend can serve the transcript
+     * back later.
      *
-     * @return true if successful, false otherwise
+     * @param transcript file to write
+     * @throws IOException if the file cannot be created
+     */
+    public static synchronized void startRecording(File transcript) throws IOException {
+        stopRecording();
+        recording = new Transcript.Writer(transcript);
+        Lib.log.appendLog("startRecording() recording installer commands to " + transcript);
+    }
+
+    /**
+     * stopRecording ends the current recording, if any, and closes its
+     * transcript.
      */
-    private boolean driverExtract(String pathToExtract) throws FileNotFoundException, IOException {
-        if (new CADI.Target.FileSystem().makeFolder(pathToCADI)) {
-            Lib.log.appendLog("driverExtract() Unzipping Driver Package for 32bit Windows");
-            Unzip.unZipResource(usbDriverPackage, pathToExtract);
-            return true;
+    public static synchronized void stopRecording() {
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.close();
+            Lib.log.appendLog("stopRecording() recorded " + recording.size() + " command(s)");
+        } catch (IOException ex) {
+            Lib.log.appendLog("stopRecording() " + ex.getLocalizedMessage());
         }
-        return false;
+        recording = null;
+    }
+
+    /**
+     * active returns the backend to run a command on, wrapped in a recorder
+     * while a recording is running.
+     */
+    private DriverBackend active() {
+        Transcript.Writer writer = recording;
+        return writer == null ? backend : new Transcript.RecordingBackend(backend, writer);
+    }
+
+    /**
+     * @return true once the installer executable for this host has been
+     * extracted
+     */
+    public static boolean isDriverExtracted() {
+        return PayloadCache.isExtracted(usbDriverPackage, ExecutableBackend.executableName(false));
     }
 
     /**
@@ -118,36 +247,7 @@ public class Console {
             Lib.log.appendLog("getDeviceList() no VID specified");
             return null;
         }
-        String rawDeviceList = find("*USB\\VID_" + VID + "*");
-
-        if (rawDeviceList == null) {
-            Lib.log.appendLog("getDeviceList() installer returned null!");
-            return null;
-        }
-        Pattern pattern = regexPattern(PatternChoice.MATCHINGDEVICES);
-        if (pattern == null) {
-            Lib.log.appendLog("getDeviceList() getRegExPattern() returned null!");
-            return null;
-        }
-        Matcher matcher = pattern.matcher(rawDeviceList);
-        pattern = regexPattern(PatternChoice.ALLDEVICES);
-
-        if (pattern == null) {
-            Lib.log.appendLog("getDeviceList() getRegExPattern() returned null!");
-            return null;
-        }
-        pattern = regexPattern(PatternChoice.ALLDEVICES);
-        matcher = pattern.matcher(rawDeviceList);
-        ArrayList<String> al = new ArrayList<>();
-        while (matcher.find()) {
-            String replacedQuote = DataType.Strings.removeLeadingAndTrailingSpaces(matcher.group(0).replace("\"", ""));
-            al.add(replacedQuote);
-        }
-        String[] retval = al.toArray(new String[al.size()]);
-        if (retval.length == 0) {
-            retval = null;
-        }
-        return retval;
+        return collectHardwareIds("find", "*USB\\VID_" + VID + "*");
     }
 
     /**
@@ -159,37 +259,86 @@ public class Console {
      * @return is a String Array of matching devices, null otherwise
      */
     public String[] getDeviceList(boolean onlyConnected, boolean onlyUSB) {
-        String rawDeviceList;
-        if (onlyConnected && onlyUSB) {
-            rawDeviceList = find("USB*"); //All present USB devices
-        } else if (onlyConnected && !onlyUSB) {
-            rawDeviceList = find("*"); //All present devices
-        } else if (!onlyConnected && onlyUSB) {
-            rawDeviceList = findall("USB*"); //All installed USB devices
-        } else {
-            rawDeviceList = findall("*"); //All installed devices
-        }
-        if (rawDeviceList == null) {
+        return collectHardwareIds(onlyConnected ? "find" : "findall", onlyUSB ? "USB*" : "*");
+    }
+
+    /**
+     * collectHardwareIds gathers the hardware IDs of a find/findall query.
+     * The device list is streamed and parsed line by line as before; only the
+     * resulting IDs go through the QueryCache, since callers typically ask
+     * for the same list several times in a row.
+     */
+    private String[] collectHardwareIds(final String verb, final String searchString) {
+        String ids = QueryCache.get("hwids of " + verb + " " + searchString, new Callable<String>() {
+            @Override
+            public String call() {
+                final StringBuilder sb = new StringBuilder();
+                int found = streamDevices(verb, searchString, new DeviceRecord.Listener() {
+                    @Override
+                    public void deviceFound(DeviceRecord device) {
+                        sb.append(device.getHardwareId()).append('\n');
+                    }
+                });
+                return found < 0 ? null : sb.toString();
+            }
+        });
+        if (ids == null) {
             Lib.log.appendLog("getDeviceList() installer returned null!");
             return null;
         }
-        Pattern pattern = regexPattern(PatternChoice.MATCHINGDEVICES);
-        if (pattern == null) {
-            Lib.log.appendLog("getDeviceList() getRegExPattern() returned null!");
+        if (ids.isEmpty()) {
             return null;
         }
-        pattern = regexPattern(PatternChoice.ALLDEVICES);
-        Matcher matcher = pattern.matcher(rawDeviceList);
-        ArrayList<String> al = new ArrayList<>();
-        while (matcher.find()) {
-            String replacedQuote = DataType.Strings.removeLeadingAndTrailingSpaces(matcher.group(0).replace("\"", ""));
-            al.add(replacedQuote);
-        }
-        String[] retval = al.toArray(new String[al.size()]);
-        if (retval.length == 0) {
-            retval = null;
+        return ids.split("\n");
+    }
+
+    /**
+     * getDevices streams the installer's device list to a listener. Each
+     * DeviceRecord is delivered as soon as its line is read, so callers can
+     * start work before enumeration finishes and the full output is never
+     * held in memory.
+     *
+     * @param onlyConnected boolean for presently connected devices only
+     * @param onlyUSB boolean for USB devices only
+     * @param listener receives each device, on a background thread
+     * @return number of devices delivered, or -1 if the installer did not
+     * complete
+     */
+    public int getDevices(boolean onlyConnected, boolean onlyUSB, DeviceRecord.Listener listener) {
+        return streamDevices(onlyConnected ? "find" : "findall", onlyUSB ? "USB*" : "*", listener);
+    }
+
+    /**
+     * getDevices streams connected USB devices of the specified VID to a
+     * listener.
+     *
+     * @param VID a String containing a four character USB vendor ID code in
+     * hexadecimal
+     * @param listener receives each device, on a background thread
+     * @return number of devices delivered, or -1 if the installer did not
+     * complete
+     */
+    public int getDevices(String VID, DeviceRecord.Listener listener) {
+        if (VID.isEmpty()) {
+            Lib.log.appendLog("getDevices() no VID specified");
+            return -1;
         }
-        return retval;
+        return streamDevices("find", "*USB\\VID_" + VID + "*", listener);
+    }
+
+    private int streamDevices(String verb, String searchString, final DeviceRecord.Listener listener) {
+        final int[] count = new int[1];
+        boolean completed = active().stream(verb + " " + searchString, COMMAND_TIMEOUT, new Shell.LineListener() {
+            @Override
+            public void line(String line) {
+                DeviceRecord device = DeviceRecord.parse(line);
+                if (device != null) {
+                    count[0]++;
+                    listener.deviceFound(device);
+                }
+            }
+        });
+        return completed ? count[0] : -1;
     }
 
     /**
@@ -200,23 +349,11 @@ public class Console {
      * null.
      */
     public Pattern regexPattern(PatternChoice whatPattern) {
-        switch (whatPattern) {
-            case ORPHANS:
-                return Pattern.compile("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}.*(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])");
-            case CASUALDRIVER:
-                return Pattern.compile("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}.*(?=:\\s[CASUAL's|Samsung]+\\s[Android\\sDevice])");
-            case INF:
-                return Pattern.compile("[o|Oe|Em|M]{3}[0-9]{1,4}\\.inf(?=\\s*Provider:\\slibusbK\\s*Class:\\s*libusbK USB Devices)");
-            case INSTALL:
-                return Pattern.compile("USB.?VID_[0-9a-fA-F]{4}&PID_[0-9a-fA-F]{4}(?=.*:)");
-            case MATCHINGDEVICES:
-                return Pattern.compile("(?<=\\s)[0-9]{1,3}?(?=[\\smatching\\sdevice\\(s\\)\\sfound])");
-            case ALLDEVICES:
-                return Pattern.compile("\\S+(?=\\s*:\\s)");
-            default:
-                Lib.log.appendLog("getRegExPattern() no known pattern requested");
-                return null;
+        if (whatPattern == null) {
+            Lib.log.appendLog("getRegExPattern() no known pattern requested");
+            return null;
         }
+        return whatPattern.pattern();
     }
 
     /**
@@ -226,27 +363,39 @@ public class Console {
      * @return integer count of CASUAL driver installs
      */
     public int getCASUALDriverCount() {
-        int devCount = 0;
         String outputBuffer = findall("USB*");
         if (outputBuffer == null) {
             Lib.log.appendLog("removeOrphanedDevices() installer returned null!");
             return 0;
         }
-        Pattern pattern = regexPattern(PatternChoice.CASUALDRIVER);
-        if (pattern == null) {
-            Lib.log.appendLog("removeOrphanedDevices() getRegExPattern() returned null!");
-            return 0;
-        }
-        Matcher matcher = pattern.matcher(outputBuffer);
-        while (matcher.find()) {
-            devCount++;
-        }
-        return devCount;
+        return PatternEngine.get().count(outputBuffer, PatternChoice.CASUALDRIVER);
     }
 
+    /**
+     * update binds the CADI driver to devices with the given hardware ID.
+     * Updates of different hardware IDs may run concurrently once the driver
+     * package is staged in the driver store; the staging update, and updates
+     * of the same hardware ID, run one at a time.
+     *
+     * @param HWID hardware ID of the devices to update
+     * @return installer output
+     */
     public String update(String HWID) {
         if (!HWID.isEmpty()) {
-            return sendCommand("update " + pathToCADI + "cadi.inf " + "\"" + HWID);
+            synchronized (deviceLock(HWID)) {
+                Lock lock = packageStaged ? driverStoreLock.readLock() : driverStoreLock.writeLock();
+                lock.lock();
+                try {
+                    String retval = sendCommand(updateCommand(HWID));
+                    BatchOutcome outcome = classify(OperationType.UPDATE, retval);
+                    if (outcome == BatchOutcome.SUCCESS || outcome == BatchOutcome.REBOOT_REQUIRED) {
+                        packageStaged = true;
+                    }
+                    return retval;
+                } finally {
+                    lock.unlock();
+                }
+            }
         } else {
             return null;
         }
@@ -254,7 +403,7 @@ public class Console {
 
     public String remove(String HWID) {
         if (!HWID.isEmpty()) {
-            return sendCommand("remove " + HWID);
+            return sendCommand(removeCommand(HWID));
         } else {
             return null;
         }
@@ -262,7 +411,16 @@ public class Console {
 
     public String delete(String infName) {
         if (!infName.isEmpty()) {
-            return sendCommand("-f dp_delete " + infName);
+            driverStoreLock.writeLock().lock();
+            try {
+                String retval = sendCommand(deleteCommand(infName));
+                if (classify(OperationType.DELETE, retval) == BatchOutcome.SUCCESS) {
+                    packageStaged = false;
+                }
+                return retval;
+            } finally {
+                driverStoreLock.writeLock().unlock();
+            }
         } else {
             return null;
         }
@@ -270,7 +428,7 @@ public class Console {
 
     public String find(String searchString) {
         if (!searchString.isEmpty()) {
-            return sendCommand("find " + searchString);
+            return query("find " + searchString);
         } else {
             return null;
         }
@@ -278,38 +436,653 @@ public class Console {
 
     public String findall(String searchString) {
         if (!searchString.isEmpty()) {
-            return sendCommand("findall " + searchString);
+            return query("findall " + searchString);
         } else {
             return null;
         }
     }
 
     public String enumerate() {
-        return sendCommand("dp_enum");
+        return query("dp_enum");
     }
 
     public boolean rescan() {
         return (sendCommand("rescan").contains("Scanning for new hardware"));
     }
 
+    public CompletableFuture<String> updateAsync(final String HWID) {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return update(HWID);
+            }
+        });
+    }
+
+    public CompletableFuture<String> removeAsync(final String HWID) {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return remove(HWID);
+            }
+        });
+    }
+
+    public CompletableFuture<String> deleteAsync(final String infName) {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return delete(infName);
+            }
+        });
+    }
+
+    public CompletableFuture<String> findAsync(final String searchString) {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return find(searchString);
+            }
+        });
+    }
+
+    public CompletableFuture<String> findallAsync(final String searchString) {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return findall(searchString);
+            }
+        });
+    }
+
+    public CompletableFuture<String> enumerateAsync() {
+        return async(new Callable<String>() {
+            @Override
+            public String call() {
+                return enumerate();
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> rescanAsync() {
+        return async(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return rescan();
+            }
+        });
+    }
+
+    public CompletableFuture<BatchResult[]> executeAsync(final Batch batch) {
+        return async(new Callable<BatchResult[]>() {
+            @Override
+            public BatchResult[] call() {
+                return batch.execute();
+            }
+        });
+    }
+
+    /**
+     * setAsyncExecutor replaces the executor the *Async methods run on. The
+     * default is a bounded pool of ASYNC_THREADS daemon threads with a queue
+     * of ASYNC_QUEUE operations; operations submitted beyond that fail with a
+     * RejectedExecutionException.
+     *
+     * @param executor executor for asynchronous operations
+     */
+    public static void setAsyncExecutor(ExecutorService executor) {
+        asyncExecutor = executor;
+    }
+
+    public static ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * async runs an operation on the async executor. Cancelling the returned
+     * future destroys any installer process the operation has started. An
+     * operation sharing an in-flight query with other callers (see
+     * QueryCache) only stops waiting for it; the query goes on for them.
+     */
+    private static <T> CompletableFuture<T> async(final Callable<T> operation) {
+        final Shell.Cancellation cancellation = new Shell.Cancellation();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Future<?> task;
+        try {
+            task = asyncExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    Shell.Cancellation previous = Shell.Cancellation.bind(cancellation);
+                    try {
+                        future.complete(operation.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    } finally {
+                        Shell.Cancellation.bind(previous);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                if (future.isCancelled()) {
+                    cancellation.cancel();
+                    task.cancel(false);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * batch creates an empty Batch bound to this Console's driver package.
+     *
+     * @return a new Batch ready to accept operations
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * query runs a read-only installer command through the shared
+     * QueryCache, so recent or in-flight identical queries are reused.
+     *
+     * @param cmd installer command line (without the executable)
+     * @return installer output
+     */
+    private String query(final String cmd) {
+        return QueryCache.get(cmd, new Callable<String>() {
+            @Override
+            public String call() {
+                return sendCommand(cmd);
+            }
+        });
+    }
+
+    /**
+     * isMutating reports whether an installer verb changes the device or
+     * driver state, and therefore invalidates cached queries.
+     */
+    private static boolean isMutating(String verb) {
+        return !(verb.equals("find") || verb.equals("findall") || verb.equals("dp_enum")
+                || verb.equals("status") || verb.equals("hwids") || verb.equals("drivernodes")
+                || verb.equals("driverfiles") || verb.equals("resources") || verb.equals("stack")
+                || verb.equals("classes") || verb.equals("listclass"));
+    }
+
+    private String updateCommand(String HWID) {
+        return "update " + pathToCADI + "cadi.inf " + "\"" + HWID + "\"";
+    }
+
+    private String removeCommand(String HWID) {
+        return "remove " + HWID;
+    }
+
+    private String deleteCommand(String infName) {
+        return "-f dp_delete " + infName;
+    }
+
+    /**
+     * sendCommand runs an installer command. The unelevated installer is
+     * tried first unless the ElevationBroker remembers that this command verb
+     * needs elevation; a failed unelevated attempt is retried elevated.
+     *
+     * @param cmd installer command line (without the executable)
+     * @return installer output
+     */
     private String sendCommand(String cmd) {
-        String retval, exec = pathToCADI + (HostSystem.is64bitSystem() ? "driver_x64.exe " : "driver_x86.exe ") + cmd;
-        retval = new Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + exec + "\""}, 90000); //1000 milliseconds — one second
-        if (retval.contains(" failed")) {
-            exec = pathToCADI + (HostSystem.is64bitSystem() ? "driver_x64_elevate.exe " : "driver_x86_elevate.exe ") + cmd;
-            retval = new Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + exec + "\""}, 90000); //1000 milliseconds — one second
+        String retval, verb = ElevationBroker.verbOf(cmd);
+        long started = System.nanoTime();
+        if (isMutating(verb)) {
+            QueryCache.invalidate();
         }
+        if (ElevationBroker.requiresElevation(verb)) {
+            ElevationBroker.skippedUnelevatedAttempt(1, true);
+            retval = active().execute(cmd, true, COMMAND_TIMEOUT);
+        } else {
+            retval = active().execute(cmd, false, COMMAND_TIMEOUT);
+            if (retval.contains(" failed")) {
+                CommandMetrics.recordElevationRetry(verb);
+                retval = active().execute(cmd, true, COMMAND_TIMEOUT);
+                if (!retval.contains(" failed") && !retval.startsWith("Timeout!!!")) {
+                    ElevationBroker.recordElevationRequired(verb);
+                }
+            }
+        }
+        if (isMutating(verb)) {
+            QueryCache.invalidate();
+        }
+        CommandMetrics.record(verb, started, CommandMetrics.outcomeOf(retval));
         Lib.log.appendLog(retval);
         return retval;
     }
 
+    /**
+     * sendChainedCommands runs several installer command lines through the
+     * backend's chaining, a single cmd.exe launch per chain for the
+     * installer executables.
+     *
+     * @param cmds installer command lines (without the executable)
+     * @param elevated true to use the elevated installer executable
+     * @return installer output for each command, in order
+     */
+    private String[] sendChainedCommands(String[] cmds, boolean elevated) {
+        QueryCache.invalidate();
+        long started = System.nanoTime();
+        String[] retval = active().executeChain(cmds, elevated, COMMAND_TIMEOUT);
+        QueryCache.invalidate();
+        StringBuilder output = new StringBuilder();
+        for (String out : retval) {
+            output.append(out);
+        }
+        CommandMetrics.record(CommandMetrics.BATCH, started, CommandMetrics.outcomeOf(output.toString()));
+        Lib.log.appendLog(output.toString());
+        return retval;
+    }
+
+    /**
+     * ASYNC_THREADS is the default number of threads running asynchronous
+     * operations.
+     */
+    public final static int ASYNC_THREADS = 4;
+
+    /**
+     * ASYNC_QUEUE is the default number of asynchronous operations which may
+     * wait for a thread.
+     */
+    public final static int ASYNC_QUEUE = 64;
+
+    private static volatile ExecutorService asyncExecutor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CADI async " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * COMMAND_TIMEOUT is the time in milliseconds a single installer
+     * invocation is allowed before it is abandoned.
+     */
+    private final static int COMMAND_TIMEOUT = 90000;
+
+    /**
+     * MAX_REMOVE_LENGTH keeps a merged remove command to half the cmd.exe
+     * command line limit.
+     */
+    private final static int MAX_REMOVE_LENGTH = ExecutableBackend.MAX_CHAIN_LENGTH / 2;
+
+    /**
+     * driverStoreLock guards the driver store. The first update stages
+     * cadi.inf into the store and dp_delete takes it out again, so both hold
+     * the write lock (as does a Batch, whose chains may do either). Updates
+     * of an already staged package only bind devices and share the read
+     * lock.
+     */
+    private final static ReentrantReadWriteLock driverStoreLock = new ReentrantReadWriteLock();
+
+    /**
+     * packageStaged is set once an update has succeeded, meaning cadi.inf is
+     * in the driver store, and cleared when a driver package is deleted.
+     */
+    private static volatile boolean packageStaged = false;
+
+    /**
+     * deviceLocks serializes operations on the same hardware ID. Distinct IDs
+     * rarely share a stripe, and sharing one only costs concurrency.
+     */
+    private final static Object[] deviceLocks = new Object[32];
+
+    static {
+        for (int i = 0; i < deviceLocks.length; i++) {
+            deviceLocks[i] = new Object();
+        }
+    }
+
+    private static Object deviceLock(String HWID) {
+        return deviceLocks[(HWID.toUpperCase().hashCode() & 0x7FFFFFFF) % deviceLocks.length];
+    }
+
+    public enum OperationType {
+
+        UPDATE, REMOVE, DELETE
+    }
+
+    public enum BatchOutcome {
+
+        SUCCESS, REBOOT_REQUIRED, FAILED, NOT_RUN
+    }
+
+    /**
+     * BatchResult holds the outcome of a single operation queued in a Batch.
+     */
+    public static class BatchResult {
+
+        public final OperationType type;
+        public final String target;
+        public final BatchOutcome outcome;
+        public final String output;
+
+        BatchResult(OperationType type, String target, BatchOutcome outcome, String output) {
+            this.type = type;
+            this.target = target;
+            this.outcome = outcome;
+            this.output = output;
+        }
+
+        public boolean succeeded() {
+            return outcome == BatchOutcome.SUCCESS || outcome == BatchOutcome.REBOOT_REQUIRED;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + target + ": " + outcome;
+        }
+    }
+
+    /**
+     * classify reads the outcome of a single operation from installer
+     * output.
+     *
+     * @param type operation which produced the output
+     * @param output installer output, may be null
+     * @return outcome of the operation
+     */
+    static BatchOutcome classify(OperationType type, String output) {
+        if (output == null || output.isEmpty()) {
+            return BatchOutcome.NOT_RUN;
+        }
+        switch (type) {
+            case UPDATE:
+                if (output.contains(" successfully")) {
+                    return output.toLowerCase().contains("reboot") ? BatchOutcome.REBOOT_REQUIRED : BatchOutcome.SUCCESS;
+                }
+                return BatchOutcome.FAILED;
+            case REMOVE:
+                if (output.contains(" failed") || output.startsWith("No devices")) {
+                    return BatchOutcome.FAILED;
+                }
+                if (output.contains("device(s) are ready to be removed. To remove the devices, reboot the system.") || output.contains("Removed on reboot")) {
+                    return BatchOutcome.REBOOT_REQUIRED;
+                }
+                return output.contains("Removed") ? BatchOutcome.SUCCESS : BatchOutcome.FAILED;
+            case DELETE:
+                return output.contains(" deleted") ? BatchOutcome.SUCCESS : BatchOutcome.FAILED;
+            default:
+                return BatchOutcome.FAILED;
+        }
+    }
+
+    /**
+     * Batch collects update, remove and delete operations and runs them with
+     * as few installer launches as possible. Removals are merged into a single
+     * remove invocation, while updates and deletes (which the installer only
+     * accepts one at a time) are chained through the backend. The installer
+     * executables run a whole chain through one cmd.exe launch, kept below
+     * the cmd.exe command line limit, so the number of launches grows with
+     * the number of chains rather than the number of devices.
+     */
+    public class Batch {
+
+        private final ArrayList<OperationType> types = new ArrayList<>();
+        private final ArrayList<String> targets = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        public Batch update(String HWID) {
+            return add(OperationType.UPDATE, HWID);
+        }
+
+        public Batch remove(String HWID) {
+            return add(OperationType.REMOVE, HWID);
+        }
+
+        public Batch delete(String infName) {
+            return add(OperationType.DELETE, infName);
+        }
+
+        public int size() {
+            return types.size();
+        }
+
+        private Batch add(OperationType type, String target) {
+            if (target == null || target.isEmpty()) {
+                Lib.log.appendLog("Batch.add() ignoring empty " + type + " target");
+                return this;
+            }
+            types.add(type);
+            targets.add(target);
+            return this;
+        }
+
+        /**
+         * execute runs every queued operation. Operations reported as failed
+         * are retried once, all together, with the elevated installer.
+         * Operations whose verb the ElevationBroker knows to need elevation
+         * skip the unelevated attempt.
+         *
+         * @return one BatchResult per queued operation, in queue order
+         */
+        public BatchResult[] execute() {
+            driverStoreLock.writeLock().lock();
+            try {
+                BatchResult[] results = executeExclusive();
+                for (BatchResult result : results) {
+                    if (result.type == OperationType.UPDATE && result.succeeded()) {
+                        packageStaged = true;
+                    } else if (result.type == OperationType.DELETE && result.succeeded()) {
+                        packageStaged = false;
+                    }
+                }
+                return results;
+            } finally {
+                driverStoreLock.writeLock().unlock();
+            }
+        }
+
+        private BatchResult[] executeExclusive() {
+            BatchResult[] results = new BatchResult[types.size()];
+            ArrayList<Integer> pending = new ArrayList<>();
+            ArrayList<Integer> elevate = new ArrayList<>();
+            for (int i = 0; i < results.length; i++) {
+                if (ElevationBroker.requiresElevation(verbOf(types.get(i)))) {
+                    elevate.add(i);
+                } else {
+                    pending.add(i);
+                }
+            }
+            if (!elevate.isEmpty()) {
+                int skipped = plan(elevate, new ArrayList<String>(), new ArrayList<int[]>());
+                ElevationBroker.skippedUnelevatedAttempt(skipped, pending.isEmpty());
+            }
+            ArrayList<Integer> failed = run(pending, false, results);
+            if (!failed.isEmpty()) {
+                Lib.log.appendLog("Batch.execute() retrying " + failed.size() + " operation(s) elevated");
+                run(failed, true, results);
+                for (int index : failed) {
+                    if (results[index].outcome != BatchOutcome.FAILED && results[index].outcome != BatchOutcome.NOT_RUN) {
+                        ElevationBroker.recordElevationRequired(verbOf(types.get(index)));
+                    }
+                }
+            }
+            if (!elevate.isEmpty()) {
+                run(elevate, true, results);
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = new BatchResult(types.get(i), targets.get(i), BatchOutcome.NOT_RUN, "");
+                }
+            }
+            return results;
+        }
+
+        /**
+         * run executes the operations at the given indexes and records their
+         * results.
+         *
+         * @return indexes of operations whose installer output reported a
+         * failure
+         */
+        private ArrayList<Integer> run(ArrayList<Integer> indexes, boolean elevated, BatchResult[] results) {
+            ArrayList<Integer> failed = new ArrayList<>();
+            ArrayList<String> commands = new ArrayList<>();
+            ArrayList<int[]> owners = new ArrayList<>();
+            plan(indexes, commands, owners);
+
+            String[] chain = commands.toArray(new String[commands.size()]);
+            String[] outputs = chain.length == 0 ? chain : sendChainedCommands(chain, elevated);
+            for (int c = 0; c < chain.length; c++) {
+                int[] owner = owners.get(c);
+                String[] split = owner.length > 1 ? splitRemoval(outputs[c], owner) : new String[]{outputs[c]};
+                for (int o = 0; o < owner.length; o++) {
+                    int index = owner[o];
+                    String output = split[o];
+                    BatchOutcome outcome = classify(types.get(index), output);
+                    results[index] = new BatchResult(types.get(index), targets.get(index), outcome, output);
+                    if (outcome == BatchOutcome.FAILED && output.contains(" failed")) {
+                        failed.add(index);
+                    }
+                }
+            }
+            return failed;
+        }
+
+        /**
+         * plan turns the operations at the given indexes into installer
+         * command lines, merging removals into as few invocations as the
+         * command line allows.
+         *
+         * @param commands receives the command lines
+         * @param owners receives, per command line, the indexes it runs
+         * @return number of installer invocations planned
+         */
+        private int plan(ArrayList<Integer> indexes, ArrayList<String> commands, ArrayList<int[]> owners) {
+            ArrayList<Integer> removals = new ArrayList<>();
+            for (int index : indexes) {
+                if (types.get(index) == OperationType.REMOVE) {
+                    removals.add(index);
+                }
+            }
+            int start = 0;
+            while (start < removals.size()) {
+                StringBuilder cmd = new StringBuilder(removeCommand(targets.get(removals.get(start))));
+                int end = start + 1;
+                while (end < removals.size() && cmd.length() + targets.get(removals.get(end)).length() + 1 < MAX_REMOVE_LENGTH) {
+                    cmd.append(' ').append(targets.get(removals.get(end)));
+                    end++;
+                }
+                int[] owner = new int[end - start];
+                for (int i = start; i < end; i++) {
+                    owner[i - start] = removals.get(i);
+                }
+                commands.add(cmd.toString());
+                owners.add(owner);
+                start = end;
+            }
+            for (int index : indexes) {
+                if (types.get(index) == OperationType.UPDATE) {
+                    commands.add(updateCommand(targets.get(index)));
+                    owners.add(new int[]{index});
+                } else if (types.get(index) == OperationType.DELETE) {
+                    commands.add(deleteCommand(targets.get(index)));
+                    owners.add(new int[]{index});
+                }
+            }
+            return commands.size();
+        }
+
+        /**
+         * splitRemoval divides the output of a merged remove invocation among
+         * its targets. Each target gets the device lines naming its own ID,
+         * so one failing device does not fail, or send to an elevated retry,
+         * the targets removed beside it. A target no device line names gets
+         * the invocation's failure lines if it failed as a whole, otherwise
+         * the installer's "No devices" answer for a target matching nothing.
+         *
+         * @param output installer output of the merged invocation
+         * @param owner indexes of the targets it removed
+         * @return output per target, in owner order
+         */
+        private String[] splitRemoval(String output, int[] owner) {
+            String[] split = new String[owner.length];
+            if (output == null || output.startsWith("Timeout!!!")) {
+                Arrays.fill(split, output);
+                return split;
+            }
+            String[] ids = new String[owner.length];
+            StringBuilder[] own = new StringBuilder[owner.length];
+            for (int o = 0; o < owner.length; o++) {
+                String id = targets.get(owner[o]).replace("\"", "").replace("@", "");
+                if (id.endsWith("*")) {
+                    id = id.substring(0, id.length() - 1);
+                }
+                ids[o] = id.toUpperCase();
+                own[o] = new StringBuilder();
+            }
+            StringBuilder failures = new StringBuilder();
+            for (String line : output.split("\n")) {
+                String trimmed = line.trim();
+                String upper = trimmed.toUpperCase();
+                boolean named = false;
+                for (int o = 0; o < owner.length; o++) {
+                    if (!ids[o].isEmpty() && upper.startsWith(ids[o])) {
+                        own[o].append(trimmed).append('\n');
+                        named = true;
+                    }
+                }
+                if (!named && trimmed.contains(" failed")) {
+                    failures.append(trimmed).append('\n');
+                }
+            }
+            for (int o = 0; o < owner.length; o++) {
+                if (own[o].length() > 0) {
+                    split[o] = own[o].toString();
+                } else if (failures.length() > 0) {
+                    split[o] = failures.toString();
+                } else {
+                    split[o] = "No devices were removed.\n";
+                }
+            }
+            return split;
+        }
+
+        private String verbOf(OperationType type) {
+            switch (type) {
+                case UPDATE:
+                    return ElevationBroker.verbOf(updateCommand(""));
+                case REMOVE:
+                    return ElevationBroker.verbOf(removeCommand(""));
+                default:
+                    return ElevationBroker.verbOf(deleteCommand(""));
+            }
+        }
+
+    }
+
+    /**
+     * Log is CADI's session log. Records are kept in a bounded, lock-free
+     * LogBuffer shared by every Log instance, so logging never blocks and
+     * memory stays fixed in long sessions. The log pane can tail it through
+     * a Cursor instead of re-reading the whole text.
+     */
     public static class Log {
 
-        private static StringBuffer cadiLog;
-        private final String CRLF = System.lineSeparator();
+        private static final LogBuffer buffer = new LogBuffer();
 
         public Log() {
-            cadiLog = new StringBuffer();
+            buffer.clear();
         }
 
         public void appendLog(String logData) {
@@ -317,15 +1090,47 @@ public class Console {
         }
 
         public void appendLog(boolean NewLine, String logData) {
-            cadiLog.append(logData).append(NewLine ? CRLF : "");
+            buffer.append(LogBuffer.Level.INFO, logData, NewLine);
+        }
+
+        public void appendLog(LogBuffer.Level level, String logData) {
+            buffer.append(level, logData, true);
         }
 
         public void clearLog() {
-            cadiLog.delete(0, cadiLog.length());
+            buffer.clear();
         }
 
+        /**
+         * readLog returns the retained log text. Prefer a cursor for
+         * repeated reads.
+         *
+         * @return the log text since the last clear, oldest records dropped
+         * once the buffer is full
+         */
         public String readLog() {
-            return cadiLog.toString();
+            return buffer.readAll();
+        }
+
+        /**
+         * @return a cursor positioned at the oldest retained record
+         */
+        public LogBuffer.Cursor cursor() {
+            return buffer.cursor();
+        }
+
+        /**
+         * @return a cursor which only sees records appended from now on
+         */
+        public LogBuffer.Cursor tail() {
+            return buffer.tail();
+        }
+
+        /**
+         * @return the LogBuffer behind every Log
+         */
+        public static LogBuffer getBuffer() {
+            return buffer;
         }
     }
 }
@@ -0,0 +1,189 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+/**
+ * DeviceRecord is a single device reported by the installer's find/findall
+ * commands, e.g.
+ * <pre>
+ * USB\VID_04E8&amp;PID_685D&amp;MI_00\6&amp;2D5A6E2&amp;0&amp;0000 : SAMSUNG Mobile USB Modem
+ * </pre>
+ * Records are parsed one line at a time so enumeration output never has to be
+ * held in memory as a whole.
+ */
+public final class DeviceRecord {
+
+    /**
+     * Listener receives each DeviceRecord as soon as its line is read.
+     */
+    public interface Listener {
+
+        void deviceFound(DeviceRecord device);
+    }
+
+    private final String hardwareId;
+    private final int vid;
+    private final int pid;
+    private final int interfaceNumber;
+    private final String description;
+
+    public DeviceRecord(String hardwareId, int vid, int pid, int interfaceNumber, String description) {
+        this.hardwareId = hardwareId;
+        this.vid = vid;
+        this.pid = pid;
+        this.interfaceNumber = interfaceNumber;
+        this.description = description;
+    }
+
+    /**
+     * parse converts a line of installer output into a DeviceRecord.
+     *
+     * @param line a single line of find/findall output
+     * @return the parsed record, or null if the line does not describe a
+     * device (headers, summaries, blank lines)
+     */
+    public static DeviceRecord parse(CharSequence line) {
+        int length = line.length();
+        int colon = -1;
+        for (int i = 0; i < length - 1; i++) {
+            if (line.charAt(i) == ':' && Character.isWhitespace(line.charAt(i + 1))) {
+                colon = i;
+                break;
+            }
+        }
+        if (colon < 0) {
+            return null;
+        }
+        int idEnd = colon;
+        while (idEnd > 0 && Character.isWhitespace(line.charAt(idEnd - 1))) {
+            idEnd--;
+        }
+        int idStart = idEnd;
+        while (idStart > 0 && !Character.isWhitespace(line.charAt(idStart - 1))) {
+            idStart--;
+        }
+        if (idStart == idEnd) {
+            return null;
+        }
+        String id = stripQuotes(line.subSequence(idStart, idEnd).toString());
+        if (id.isEmpty()) {
+            return null;
+        }
+        int descStart = colon + 1;
+        while (descStart < length && Character.isWhitespace(line.charAt(descStart))) {
+            descStart++;
+        }
+        int descEnd = length;
+        while (descEnd > descStart && Character.isWhitespace(line.charAt(descEnd - 1))) {
+            descEnd--;
+        }
+        String desc = line.subSequence(descStart, descEnd).toString();
+        String upper = id.toUpperCase();
+        return new DeviceRecord(id, hexField(upper, "VID_"), hexField(upper, "PID_"), hexField(upper, "MI_"), desc);
+    }
+
+    private static String stripQuotes(String s) {
+        return s.indexOf('"') < 0 ? s : s.replace("\"", "");
+    }
+
+    /**
+     * hexField reads the hexadecimal value following a tag such as "VID_" in
+     * an upper case device ID.
+     *
+     * @return the value, or -1 if the tag is absent or malformed
+     */
+    private static int hexField(String id, String tag) {
+        int at = id.indexOf(tag);
+        if (at < 0) {
+            return -1;
+        }
+        int value = 0;
+        int digits = 0;
+        for (int i = at + tag.length(); i < id.length(); i++) {
+            int d = Character.digit(id.charAt(i), 16);
+            if (d < 0) {
+                break;
+            }
+            value = (value << 4) | d;
+            if (++digits == 4) {
+                break;
+            }
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    /**
+     * @return the full device instance ID as reported by the installer
+     */
+    public String getHardwareId() {
+        return hardwareId;
+    }
+
+    /**
+     * @return the USB vendor ID, or -1 for non-USB devices
+     */
+    public int getVid() {
+        return vid;
+    }
+
+    /**
+     * @return the USB product ID, or -1 for non-USB devices
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return the composite interface number (MI_xx), or -1 if the device is
+     * not an interface of a composite device
+     */
+    public int getInterfaceNumber() {
+        return interfaceNumber;
+    }
+
+    /**
+     * @return the device description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the vendor ID as a four character hexadecimal String, or an
+     * empty String for non-USB devices
+     */
+    public String getVidString() {
+        return vid < 0 ? "" : String.format("%04X", vid);
+    }
+
+    /**
+     * @return the product ID as a four character hexadecimal String, or an
+     * empty String for non-USB devices
+     */
+    public String getPidString() {
+        return pid < 0 ? "" : String.format("%04X", pid);
+    }
+
+    @Override
+    public String toString() {
+        return hardwareId + " : " + description;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeviceWatcher follows connected USB devices by taking periodic snapshots
+ * of the installer's device list and publishing the differences to
+ * listeners.
+ * <p>
+ * Each snapshot is sorted by its packed (VID &lt;&lt; 16 | PID) key, so
+ * arrivals and removals are found with a single merge of the previous and
+ * current snapshot. The polling interval starts short, doubles while nothing
+ * changes and snaps back as soon as something does, so an idle bench costs
+ * few installer launches while a re-enumerating device is noticed quickly.
+ */
+public class DeviceWatcher {
+
+    /**
+     * Listener receives device arrivals and removals, on the watcher thread.
+     */
+    public interface Listener {
+
+        void deviceArrived(DeviceRecord device);
+
+        void deviceRemoved(DeviceRecord device);
+    }
+
+    public static final long DEFAULT_MIN_INTERVAL = 250;
+    public static final long DEFAULT_MAX_INTERVAL = 4000;
+
+    private static final Comparator<DeviceRecord> ORDER = new Comparator<DeviceRecord>() {
+        @Override
+        public int compare(DeviceRecord a, DeviceRecord b) {
+            int ka = key(a.getVid(), a.getPid());
+            int kb = key(b.getVid(), b.getPid());
+            if (ka != kb) {
+                return ka < kb ? -1 : 1;
+            }
+            return a.getHardwareId().compareToIgnoreCase(b.getHardwareId());
+        }
+    };
+
+    private final Console console;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object snapshotLock = new Object();
+    private final Object refreshLock = new Object();
+    private final long minInterval;
+    private final long maxInterval;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pending;
+    private DeviceRecord[] snapshot = new DeviceRecord[0];
+    private long snapshotCount;
+    private long refreshesStarted;
+    private long snapshotStarted;
+    private long stopCount;
+    private long interval;
+
+    public DeviceWatcher(Console console) {
+        this(console, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+
+    /**
+     * @param console Console used to take snapshots
+     * @param minInterval shortest time between snapshots in milliseconds
+     * @param maxInterval longest time between snapshots in milliseconds
+     */
+    public DeviceWatcher(Console console, long minInterval, long maxInterval) {
+        this.console = console;
+        this.minInterval = Math.max(1, minInterval);
+        this.maxInterval = Math.max(this.minInterval, maxInterval);
+        this.interval = this.minInterval;
+    }
+
+    static int key(int vid, int pid) {
+        return (vid << 16) | (pid & 0xFFFF);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * start begins taking snapshots on a background thread. The first
+     * snapshot reports every connected device as an arrival.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CADI device watcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        interval = minInterval;
+        pending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop ends snapshotting. Threads blocked in waitForDevice return null
+     * at once.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        synchronized (snapshotLock) {
+            stopCount++;
+            snapshotLock.notifyAll();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    private void poll() {
+        boolean changed = refresh();
+        synchronized (this) {
+            if (scheduler == null) {
+                return;
+            }
+            interval = changed ? minInterval : Math.min(maxInterval, interval * 2);
+            pending = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * refresh takes one snapshot and publishes its differences from the
+     * previous one.
+     *
+     * @return true if any device arrived or was removed
+     */
+    public boolean refresh() {
+        synchronized (refreshLock) {
+            long started;
+            synchronized (snapshotLock) {
+                started = ++refreshesStarted;
+            }
+            final ArrayList<DeviceRecord> current = new ArrayList<>();
+            if (console.getDevices(true, true, new DeviceRecord.Listener() {
+                @Override
+                public void deviceFound(DeviceRecord device) {
+                    if (device.getVid() >= 0) {
+                        current.add(device);
+                    }
+                }
+            }) < 0) {
+                return false;
+            }
+            DeviceRecord[] next = current.toArray(new DeviceRecord[current.size()]);
+            Arrays.sort(next, ORDER);
+            DeviceRecord[] previous;
+            synchronized (snapshotLock) {
+                previous = snapshot;
+                snapshot = next;
+                snapshotCount++;
+                snapshotStarted = started;
+                snapshotLock.notifyAll();
+            }
+            return publish(previous, next);
+        }
+    }
+
+    /**
+     * publish merges two sorted snapshots and reports each device present
+     * in only one of them.
+     */
+    private boolean publish(DeviceRecord[] previous, DeviceRecord[] next) {
+        boolean changed = false;
+        int p = 0;
+        int n = 0;
+        while (p < previous.length || n < next.length) {
+            int order;
+            if (p == previous.length) {
+                order = 1;
+            } else if (n == next.length) {
+                order = -1;
+            } else {
+                order = ORDER.compare(previous[p], next[n]);
+            }
+            if (order == 0) {
+                p++;
+                n++;
+                continue;
+            }
+            changed = true;
+            if (order < 0) {
+                DeviceRecord removed = previous[p++];
+                for (Listener listener : listeners) {
+                    listener.deviceRemoved(removed);
+                }
+            } else {
+                DeviceRecord arrived = next[n++];
+                for (Listener listener : listeners) {
+                    listener.deviceArrived(arrived);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * getSnapshot returns the devices seen by the latest snapshot, ordered
+     * by VID, PID and hardware ID.
+     *
+     * @return connected devices
+     */
+    public DeviceRecord[] getSnapshot() {
+        synchronized (snapshotLock) {
+            return snapshot.clone();
+        }
+    }
+
+    /**
+     * waitForDevice blocks until a device with the given IDs is connected.
+     * The watcher is started if needed and a long back-off is cut short so
+     * the next snapshot is taken promptly; the calling thread sleeps until
+     * each snapshot completes rather than polling. Only snapshots begun after
+     * the call are consulted, so a device that has just gone away is not
+     * reported from an older snapshot.
+     *
+     * @param vid USB vendor ID
+     * @param pid USB product ID, or -1 for any product of the vendor
+     * @param timeout in milliseconds
+     * @return the matching device, or null if the timeout elapsed or the
+     * watcher was stopped
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public DeviceRecord waitForDevice(int vid, int pid, long timeout) throws InterruptedException {
+        long entered;
+        long stops;
+        synchronized (snapshotLock) {
+            entered = refreshesStarted;
+            stops = stopCount;
+        }
+        start();
+        synchronized (this) {
+            interval = minInterval;
+            if (scheduler != null && pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > minInterval && pending.cancel(false)) {
+                pending = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (snapshotLock) {
+            long seen = -1;
+            while (true) {
+                if (stopCount != stops) {
+                    return null;
+                }
+                if (seen != snapshotCount && snapshotStarted > entered) {
+                    seen = snapshotCount;
+                    DeviceRecord found = find(snapshot, vid, pid);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                snapshotLock.wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * find binary searches a sorted snapshot for the first device with the
+     * given IDs.
+     */
+    private static DeviceRecord find(DeviceRecord[] devices, int vid, int pid) {
+        int low = pid < 0 ? key(vid, 0) : key(vid, pid);
+        int high = pid < 0 ? key(vid, 0xFFFF) : low;
+        int lo = 0;
+        int hi = devices.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(devices[mid].getVid(), devices[mid].getPid()) < low) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < devices.length && key(devices[lo].getVid(), devices[lo].getPid()) <= high) {
+            return devices[lo];
+        }
+        return null;
+    }
+}
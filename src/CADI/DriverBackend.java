@@ -0,0 +1,75 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+/**
+ * DriverBackend carries installer commands to something which can run them.
+ * Console builds the command lines and owns the policy around them
+ * (elevation retries, caching, batching, parsing); a backend only executes
+ * them and returns the installer's text output.
+ * <p>
+ * Command lines use the installer's own syntax, without the executable:
+ * <pre>
+ * find &lt;id&gt;...          findall &lt;id&gt;...
+ * update &lt;inf&gt; &lt;hwid&gt;   remove &lt;id&gt;...
+ * -f dp_delete &lt;oemN.inf&gt; dp_enum
+ * rescan
+ * </pre>
+ * IDs may contain * wildcards, be quoted, and be prefixed with @ to match a
+ * device instance ID rather than a hardware ID.
+ */
+public interface DriverBackend {
+
+    /**
+     * execute runs a single installer command.
+     *
+     * @param cmd installer command line
+     * @param elevated true to run with administrator rights
+     * @param timeout in milliseconds
+     * @return installer output, prefixed with "Timeout!!! " if the command
+     * did not complete in time
+     */
+    String execute(String cmd, boolean elevated, int timeout);
+
+    /**
+     * executeChain runs several installer commands in order, as cheaply as
+     * the backend allows.
+     *
+     * @param cmds installer command lines
+     * @param elevated true to run with administrator rights
+     * @param timeout in milliseconds, per command
+     * @return output of each command, in order; empty for commands which did
+     * not run
+     */
+    String[] executeChain(String[] cmds, boolean elevated, int timeout);
+
+    /**
+     * stream runs an unelevated installer command and hands its output to
+     * the listener line by line as it is produced.
+     *
+     * @param cmd installer command line
+     * @param timeout in milliseconds
+     * @param listener receives each line of output
+     * @return true if the command completed, false if it timed out or was
+     * cancelled
+     */
+    boolean stream(String cmd, int timeout, Target.HostSystem.Shell.LineListener listener);
+}
@@ -0,0 +1,299 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ElevationBroker decides whether an installer command should go straight to
+ * the elevated installer executable. The decision is remembered per command
+ * verb (find, update, remove, dp_delete...) once an elevated retry has
+ * succeeded where the unelevated attempt failed, so later commands with that
+ * verb skip the doomed unelevated launch.
+ *
+ * Elevated commands are issued through one long-lived command interpreter
+ * instead of a fresh cmd.exe per command. The elevated installer executable
+ * itself still carries its own elevation request, so Windows may prompt on
+ * each elevated launch, but the interpreter start-up and the wasted
+ * unelevated attempt are paid only once.
+ */
+public final class ElevationBroker {
+
+    private static final ConcurrentHashMap<String, Boolean> elevationRequired = new ConcurrentHashMap<>();
+
+    /**
+     * avoidedLaunches counts processes that did not have to be started
+     * thanks to a remembered decision or the long-lived interpreter.
+     */
+    private static final AtomicLong avoidedLaunches = new AtomicLong();
+
+    private static Session session;
+
+    private ElevationBroker() {
+    }
+
+    /**
+     * verbOf extracts the command verb from an installer command line,
+     * skipping option switches such as "-f".
+     *
+     * @param cmd installer command line (without the executable)
+     * @return the lower case verb, or an empty String
+     */
+    public static String verbOf(String cmd) {
+        for (String token : cmd.trim().split("\\s+")) {
+            if (!token.startsWith("-") && !token.startsWith("/")) {
+                return token.toLowerCase();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * requiresElevation reports whether a previous command with this verb
+     * only succeeded when elevated.
+     *
+     * @param verb command verb as returned by verbOf
+     * @return true if the unelevated attempt should be skipped
+     */
+    public static boolean requiresElevation(String verb) {
+        Boolean required = elevationRequired.get(verb);
+        return required != null && required;
+    }
+
+    /**
+     * recordElevationRequired remembers that the verb needs the elevated
+     * installer.
+     *
+     * @param verb command verb as returned by verbOf
+     */
+    public static void recordElevationRequired(String verb) {
+        if (elevationRequired.put(verb, Boolean.TRUE) == null) {
+            Lib.log.appendLog("ElevationBroker() " + verb + " will be run elevated from now on");
+        }
+    }
+
+    /**
+     * skippedUnelevatedAttempt records the launches avoided because a verb
+     * is known to need elevation: one per installer invocation which was not
+     * attempted unelevated, plus the cmd.exe it would have run in.
+     *
+     * @param installerLaunches installer invocations skipped
+     * @param interpreterLaunch true if a cmd.exe launch was skipped as well,
+     * false if the invocations would have shared one with other commands
+     */
+    static void skippedUnelevatedAttempt(int installerLaunches, boolean interpreterLaunch) {
+        avoidedLaunches.addAndGet(installerLaunches + (interpreterLaunch ? 1 : 0));
+    }
+
+    /**
+     * forget clears every remembered decision, e.g. after the user changed
+     * the account CASUAL runs under.
+     */
+    public static void forget() {
+        elevationRequired.clear();
+    }
+
+    /**
+     * getAvoidedLaunches reports how many redundant process launches the
+     * broker avoided since the JVM started.
+     *
+     * @return count of avoided process launches
+     */
+    public static long getAvoidedLaunches() {
+        return avoidedLaunches.get();
+    }
+
+    /**
+     * executeElevated runs a full command line (elevated executable and
+     * arguments) through the long-lived interpreter.
+     *
+     * @param exec command line to run
+     * @param timeout in milliseconds
+     * @return any text from the command, prefixed with "Timeout!!! " if the
+     * command did not complete in time
+     */
+    public static String executeElevated(String exec, int timeout) {
+        Session current;
+        synchronized (ElevationBroker.class) {
+            if (session == null || !session.isAlive()) {
+                try {
+                    session = new Session();
+                } catch (IOException ex) {
+                    Lib.log.appendLog("ElevationBroker() could not start helper: " + ex.getLocalizedMessage());
+                    return new Target.HostSystem.Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + exec + "\""}, timeout);
+                }
+            } else {
+                avoidedLaunches.incrementAndGet();
+            }
+            current = session;
+        }
+        return current.execute(exec, timeout);
+    }
+
+    /**
+     * shutdown closes the long-lived interpreter if one is running.
+     */
+    public static synchronized void shutdown() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+
+    /**
+     * Session is a persistent, echo-less cmd.exe fed through its standard
+     * input. Each command is followed by an echoed marker which signals the
+     * end of its output.
+     * <p>
+     * The output is read into a queue of lines on an OutputPipeline pool
+     * thread, so a command which overruns its timeout or is cancelled returns
+     * on time even where an elevated child outlives the killed interpreter
+     * and keeps the pipe open. A killed Session is dead; the next elevated
+     * command starts a new one.
+     */
+    private static final class Session {
+
+        private static final String DONE_MARKER = "##CADI-ELEVATED-DONE##";
+        /**
+         * END is queued, by identity, when the output ends or the Session is
+         * killed.
+         */
+        private static final String END = new String("##CADI-ELEVATED-END##");
+        private final Process process;
+        private final BufferedWriter stdin;
+        private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final OutputPipeline.Detachable output;
+        private volatile boolean killed;
+
+        Session() throws IOException {
+            ProcessBuilder p = new ProcessBuilder("cmd.exe", "/Q", "/D", "/K");
+            p.redirectErrorStream(true);
+            process = p.start();
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), OutputPipeline.oemCharset()));
+            output = new OutputPipeline.Detachable(OutputPipeline.lines(new Target.HostSystem.Shell.LineListener() {
+                @Override
+                public void line(String line) {
+                    lines.add(line);
+                }
+            }));
+            OutputPipeline.drainInBackground(process.getInputStream(), OutputPipeline.oemCharset(), output, new Runnable() {
+                @Override
+                public void run() {
+                    lines.add(END);
+                }
+            });
+            Lib.log.appendLog("ElevationBroker() started long-lived helper");
+        }
+
+        boolean isAlive() {
+            if (killed) {
+                return false;
+            }
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException ex) {
+                return true;
+            }
+        }
+
+        /**
+         * kill destroys the interpreter and wakes the command waiting on it.
+         * Output still arriving from surviving children is discarded.
+         */
+        void kill() {
+            killed = true;
+            ProcessSupervisor.destroyTree(process);
+            output.detach();
+            lines.add(END);
+        }
+
+        synchronized String execute(String exec, int timeout) {
+            long started = System.nanoTime();
+            StringBuilder text = new StringBuilder();
+            Runnable stop = new Runnable() {
+                @Override
+                public void run() {
+                    kill();
+                }
+            };
+            Target.HostSystem.Shell.Cancellation cancellation = Target.HostSystem.Shell.Cancellation.current();
+            if (cancellation != null) {
+                cancellation.register(process);
+                cancellation.onCancel(stop);
+            }
+            ProcessRegistry.Entry registered = ProcessRegistry.register(process, exec);
+            registered.onCancel(stop);
+            try {
+                stdin.write(exec + " & echo " + DONE_MARKER + "\r\n");
+                stdin.flush();
+                long deadline = System.currentTimeMillis() + timeout;
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    String line = remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                    if (line == null) {
+                        Lib.log.appendLog("ElevationBroker() helper timed out, restarting it on next use");
+                        kill();
+                        break;
+                    }
+                    if (line == END) {
+                        break;
+                    }
+                    if (line.trim().equals(DONE_MARKER)) {
+                        CommandMetrics.record(CommandMetrics.ELEVATED, started, CommandMetrics.Outcome.SUCCESS);
+                        return text.toString();
+                    }
+                    text.append(line).append('\n');
+                }
+            } catch (IOException ex) {
+                Lib.log.appendLog("@problemWhileExecutingCommand " + exec + " " + ex.getLocalizedMessage());
+                kill();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                kill();
+            } finally {
+                if (cancellation != null) {
+                    cancellation.removeOnCancel(stop);
+                    cancellation.unregister(process);
+                }
+                ProcessRegistry.unregister(registered);
+            }
+            CommandMetrics.record(CommandMetrics.ELEVATED, started, CommandMetrics.Outcome.TIMEOUT);
+            return "Timeout!!! " + text.toString();
+        }
+
+        void close() {
+            try {
+                stdin.write("exit\r\n");
+                stdin.flush();
+            } catch (IOException ex) {
+                Lib.log.appendLog(ex.getLocalizedMessage());
+            }
+            kill();
+        }
+    }
+}
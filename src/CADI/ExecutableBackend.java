@@ -0,0 +1,207 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import CADI.Target.HostSystem;
+import CADI.Target.HostSystem.Shell;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * ExecutableBackend runs installer commands with the bundled installer
+ * executables (driver_x64.exe, driver_x86.exe and their _elevate variants)
+ * through cmd.exe. Elevated commands go through the ElevationBroker helper.
+ */
+public class ExecutableBackend implements DriverBackend {
+
+    /**
+     * BATCH_MARKER separates the output of chained installer invocations.
+     */
+    private final static String BATCH_MARKER = "##CADI-BATCH##";
+
+    /**
+     * MAX_CHAIN_LENGTH keeps chained command lines safely below the 8191
+     * character limit of cmd.exe.
+     */
+    final static int MAX_CHAIN_LENGTH = 7680;
+
+    private final String pathToCADI;
+
+    /**
+     * payload is the bundled archive the PayloadCache materializes
+     * pathToCADI from, or null if the folder is already populated.
+     */
+    private final String payload;
+
+    /**
+     * @param pathToCADI folder the driver package was extracted to, ending
+     * with a separator
+     */
+    public ExecutableBackend(String pathToCADI) {
+        this(pathToCADI, null);
+    }
+
+    /**
+     * @param pathToCADI PayloadCache folder of the driver package, ending
+     * with a separator
+     * @param payload resource name of the driver package; each file is
+     * materialized the first time a command needs it
+     */
+    public ExecutableBackend(String pathToCADI, String payload) {
+        this.pathToCADI = pathToCADI;
+        this.payload = payload;
+    }
+
+    /**
+     * @return folder holding the installer executables, ending with a
+     * separator
+     */
+    public String getPath() {
+        return pathToCADI;
+    }
+
+    /**
+     * executableName names the installer executable for this host.
+     *
+     * @param elevated true for the variant which requests elevation
+     * @return file name of the executable
+     */
+    static String executableName(boolean elevated) {
+        if (HostSystem.is64bitSystem()) {
+            return elevated ? "driver_x64_elevate.exe" : "driver_x64.exe";
+        }
+        return elevated ? "driver_x86_elevate.exe" : "driver_x86.exe";
+    }
+
+    private String driverExecutable(boolean elevated) {
+        return pathToCADI + executableName(elevated) + " ";
+    }
+
+    /**
+     * prepare materializes the files the commands need: the executable, and
+     * for update the INF, its catalog and this architecture's binaries. The
+     * other architecture's files are never written.
+     *
+     * @return null when the files are ready, otherwise the reason they are
+     * not, which is handed back instead of running a damaged installer
+     */
+    private String prepare(boolean elevated, String... cmds) {
+        if (payload == null) {
+            return null;
+        }
+        ArrayList<String> entries = new ArrayList<>();
+        entries.add(executableName(elevated));
+        for (String cmd : cmds) {
+            if (ElevationBroker.verbOf(cmd).equals("update")) {
+                entries.add("cadi.inf");
+                entries.add("cadi.cat");
+                entries.add(HostSystem.is64bitSystem() ? "amd64/" : "x86/");
+                break;
+            }
+        }
+        try {
+            PayloadCache.get(payload, entries.toArray(new String[entries.size()]));
+            return null;
+        } catch (IOException ex) {
+            Lib.log.appendLog("prepare() driver package unavailable: " + ex.getLocalizedMessage());
+            return "@driverPackageUnavailable " + ex.getLocalizedMessage();
+        }
+    }
+
+    @Override
+    public String execute(String cmd, boolean elevated, int timeout) {
+        String unavailable = prepare(elevated, cmd);
+        if (unavailable != null) {
+            return unavailable;
+        }
+        String exec = driverExecutable(elevated) + cmd;
+        if (elevated) {
+            return ElevationBroker.executeElevated(exec, timeout);
+        }
+        return new Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + exec + "\""}, timeout);
+    }
+
+    /**
+     * executeChain joins the commands into as few cmd.exe launches as the
+     * command line limit allows, echoing a marker between commands so each
+     * one's output can be handed back individually.
+     */
+    @Override
+    public String[] executeChain(String[] cmds, boolean elevated, int timeout) {
+        String unavailable = prepare(elevated, cmds);
+        String[] retval = new String[cmds.length];
+        if (unavailable != null) {
+            Arrays.fill(retval, unavailable);
+            return retval;
+        }
+        String executable = driverExecutable(elevated);
+        int first = 0;
+        while (first < cmds.length) {
+            StringBuilder chain = new StringBuilder(executable).append(cmds[first]);
+            int last = first + 1;
+            while (last < cmds.length && chain.length() + executable.length() + cmds[last].length() + BATCH_MARKER.length() + 16 < MAX_CHAIN_LENGTH) {
+                chain.append(" & echo ").append(BATCH_MARKER).append(" & ").append(executable).append(cmds[last]);
+                last++;
+            }
+            String output;
+            if (elevated) {
+                output = ElevationBroker.executeElevated(chain.toString(), timeout * (last - first));
+            } else {
+                output = new Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + chain.toString() + "\""}, timeout * (last - first));
+            }
+            split(output, retval, first, last);
+            first = last;
+        }
+        return retval;
+    }
+
+    /**
+     * split hands the output of one chain back to its commands.
+     */
+    private void split(String output, String[] retval, int first, int last) {
+        StringBuilder current = new StringBuilder();
+        int index = first;
+        for (String line : output.split("\n")) {
+            if (line.trim().equals(BATCH_MARKER) && index < last - 1) {
+                retval[index++] = current.toString();
+                current.setLength(0);
+            } else {
+                current.append(line).append('\n');
+            }
+        }
+        retval[index] = current.toString();
+        for (int i = index + 1; i < last; i++) {
+            retval[i] = ""; //the chain was cut short, most likely by a timeout
+        }
+    }
+
+    @Override
+    public boolean stream(String cmd, int timeout, Shell.LineListener listener) {
+        String unavailable = prepare(false, cmd);
+        if (unavailable != null) {
+            listener.line(unavailable);
+            return false;
+        }
+        String exec = driverExecutable(false) + cmd;
+        return new Shell().timeoutShellCommand(new String[]{"cmd.exe", "/C", "\"" + exec + "\""}, timeout, listener);
+    }
+}
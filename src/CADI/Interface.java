@@ -21,8 +21,16 @@
 package CADI;
 
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JOptionPane;
 
 /**
@@ -73,6 +81,89 @@ public class Interface {
      */
     public static int removeDriverOnCompletion;
 
+    /**
+     * Counters of driver installations and removals since the JVM started,
+     * as reported by the installer.
+     */
+    private static final AtomicLong installed = new AtomicLong();
+    private static final AtomicLong installFailures = new AtomicLong();
+    private static final AtomicLong removed = new AtomicLong();
+    private static final AtomicLong removeFailures = new AtomicLong();
+    private static final AtomicLong packagesDeleted = new AtomicLong();
+
+    /**
+     * @return number of hardware IDs the driver was installed for
+     */
+    public static long getInstalledCount() {
+        return installed.get();
+    }
+
+    /**
+     * @return number of driver installations which failed
+     */
+    public static long getInstallFailureCount() {
+        return installFailures.get();
+    }
+
+    /**
+     * @return number of orphaned devices removed
+     */
+    public static long getRemovedCount() {
+        return removed.get();
+    }
+
+    /**
+     * @return number of device removals which failed
+     */
+    public static long getRemoveFailureCount() {
+        return removeFailures.get();
+    }
+
+    /**
+     * @return number of driver packages deleted from the driver store
+     */
+    public static long getPackagesDeletedCount() {
+        return packagesDeleted.get();
+    }
+
+    /**
+     * InstallOutcome reports the driver installation of a single hardware ID.
+     */
+    public static class InstallOutcome {
+
+        public final String hardwareId;
+        public final Console.BatchOutcome outcome;
+
+        /**
+         * latency is the time in milliseconds from the start of this
+         * installation to its end, including any wait for a serialized
+         * installer operation.
+         */
+        public final long latency;
+
+        /**
+         * failureReason is the installer's explanation of a failure, or null
+         * if the installation succeeded.
+         */
+        public final String failureReason;
+
+        InstallOutcome(String hardwareId, Console.BatchOutcome outcome, long latency, String failureReason) {
+            this.hardwareId = hardwareId;
+            this.outcome = outcome;
+            this.latency = latency;
+            this.failureReason = failureReason;
+        }
+
+        public boolean succeeded() {
+            return outcome == Console.BatchOutcome.SUCCESS || outcome == Console.BatchOutcome.REBOOT_REQUIRED;
+        }
+
+        @Override
+        public String toString() {
+            return hardwareId + ": " + outcome + " in " + latency + "ms" + (failureReason == null ? "" : " (" + failureReason + ")");
+        }
+    }
+
     public class Install {
 
         /**
@@ -123,16 +214,130 @@ public class Interface {
             }
             ArrayList<String[]> uidVid = new ArrayList<>();//get vidUID list
             parseUidVidFromQualifiedDevices(qualifiedDevices, uidVid);
-            Console driver = new Console();
+            Console.Batch batch = new Console().batch();
             for (String[] uv : uidVid) {
-                String usbVidString = "USB\\VID_" + uv[0] + "&PID_" + uv[1];
-                if (driver.update(usbVidString).contains(" successfully")) {//install each driver
+                batch.update("USB\\VID_" + uv[0] + "&PID_" + uv[1]);
+            }
+            for (Console.BatchResult result : batch.execute()) {
+                if (result.succeeded()) {//install each driver
                     retVal++;
+                    installed.incrementAndGet();
+                } else {
+                    installFailures.incrementAndGet();
                 }
             }
             return retVal > 0;
         }
 
+        /**
+         * installKnownDevices installs the driver for every connected device
+         * of a targeted vendor, running up to concurrency installer
+         * invocations at once. The installation which stages the driver
+         * package, and installations of the same hardware ID, are serialized
+         * by Console; everything else runs side by side.
+         *
+         * @param concurrency maximum number of simultaneous installations
+         * @return one InstallOutcome per distinct hardware ID, in device list
+         * order
+         */
+        public ArrayList<InstallOutcome> installKnownDevices(int concurrency) {
+            final Console driver = new Console();
+            String[] deviceList = driver.getDeviceList(true, true);
+            ArrayList<InstallOutcome> outcomes = new ArrayList<>();
+            if (deviceList == null) {
+                return outcomes;
+            }
+            ArrayList<String> qualifiedDevices = new ArrayList<>();
+            for (String device : deviceList) {
+                addDeviceToInstallationQueueIfInList(qualifiedDevices, device);
+            }
+            ArrayList<String[]> uidVid = new ArrayList<>();
+            parseUidVidFromQualifiedDevices(qualifiedDevices, uidVid);
+            LinkedHashSet<String> hardwareIds = new LinkedHashSet<>();//identical devices share one update
+            for (String[] uv : uidVid) {
+                hardwareIds.add("USB\\VID_" + uv[0] + "&PID_" + uv[1]);
+            }
+            if (hardwareIds.isEmpty()) {
+                return outcomes;
+            }
+            ArrayList<Callable<InstallOutcome>> installs = new ArrayList<>();
+            for (final String HWID : hardwareIds) {
+                installs.add(new Callable<InstallOutcome>() {
+                    @Override
+                    public InstallOutcome call() {
+                        return install(driver, HWID);
+                    }
+                });
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, installs.size())), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CADI install " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            try {
+                List<Future<InstallOutcome>> results = pool.invokeAll(installs);
+                int i = 0;
+                for (String HWID : hardwareIds) {
+                    try {
+                        outcomes.add(results.get(i++).get());
+                    } catch (ExecutionException ex) {
+                        outcomes.add(new InstallOutcome(HWID, Console.BatchOutcome.FAILED, 0, String.valueOf(ex.getCause())));
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Lib.log.appendLog("installKnownDevices() interrupted");
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdownNow();
+            }
+            for (InstallOutcome outcome : outcomes) {
+                Lib.log.appendLog("installKnownDevices() " + outcome);
+            }
+            return outcomes;
+        }
+
+        private InstallOutcome install(Console driver, String HWID) {
+            long start = System.nanoTime();
+            String output = driver.update(HWID);
+            long latency = (System.nanoTime() - start) / 1000000;
+            Console.BatchOutcome outcome = Console.classify(Console.OperationType.UPDATE, output);
+            if (outcome == Console.BatchOutcome.SUCCESS || outcome == Console.BatchOutcome.REBOOT_REQUIRED) {
+                installed.incrementAndGet();
+                return new InstallOutcome(HWID, outcome, latency, null);
+            }
+            installFailures.incrementAndGet();
+            return new InstallOutcome(HWID, outcome, latency, failureReason(output));
+        }
+
+        /**
+         * failureReason picks the most telling line of failed installer
+         * output: the line reporting the failure, or else the last line.
+         */
+        private String failureReason(String output) {
+            if (output == null) {
+                return "installer returned null";
+            }
+            if (output.startsWith("Timeout!!!")) {
+                return "installer timed out";
+            }
+            String reason = "no installer output";
+            for (String line : output.split("\n")) {
+                String trimmed = line.trim();
+                if (trimmed.contains(" failed")) {
+                    return trimmed;
+                }
+                if (!trimmed.isEmpty()) {
+                    reason = trimmed;
+                }
+            }
+            return reason;
+        }
+
         public ArrayList<String[]> parseUidVidFromQualifiedDevices(ArrayList<String> qualifiedDevices, ArrayList<String[]> uidVid) {
             for (String device : qualifiedDevices) {
 
@@ -206,18 +411,25 @@ public class Interface {
             Console driver = new Console();
             Lib.log.appendLog("deleteOemInf() Enumerating installed driver packages");
             int resultSum = 0;
-            Pattern pattern = driver.regexPattern(Console.PatternChoice.INF);
             String outputBuffer = driver.enumerate();
             if (outputBuffer == null) {
                 Lib.log.appendLog("deleteOemInf() installer returned null!");
                 return false;
             }
-            Matcher matcher = pattern.matcher(outputBuffer);
-            while (matcher.find()) {
-                Lib.log.appendLog("removeDriver() Forcing removal of driver package" + matcher.group(0));
-                String result = driver.delete(matcher.group(0));
-                if (result == null || result.contains("Driver package")) {
-                    Lib.log.appendLog("removeDriver() installer returned null!");
+            final Console.Batch batch = driver.batch();
+            PatternEngine.get().scan(outputBuffer, new PatternEngine.Handler() {
+                @Override
+                public void matched(Console.PatternChoice choice, CharSequence source, int start, int end) {
+                    String infName = source.subSequence(start, end).toString();
+                    Lib.log.appendLog("removeDriver() Forcing removal of driver package" + infName);
+                    batch.delete(infName);
+                }
+            }, Console.PatternChoice.INF);
+            for (Console.BatchResult result : batch.execute()) {
+                if (result.succeeded()) {
+                    packagesDeleted.incrementAndGet();
+                } else {
+                    Lib.log.appendLog("removeDriver() installer failed to delete " + result.target);
                 }
                 resultSum++;
             }
@@ -235,41 +447,36 @@ public class Interface {
          * of drivers
          */
         public boolean removeOrphanedDevices(String VID) {
-            int i = 0;
             int resultSum = 0;
-            String result;
             Console driver = new Console();
             if (VID.equals("")) {
                 Lib.log.appendLog("removeOrphanedDevices() no VID specified");
                 return false;
             }
-            Pattern pattern;
-            pattern = driver.regexPattern(Console.PatternChoice.MATCHINGDEVICES);
-            if (pattern == null) {
-                Lib.log.appendLog("removeOrphanedDevices() getRegExPattern() returned null!");
-                return false;
-            }
             String outputBuffer = driver.findall("*USB\\VID_" + VID + "*");
             if (outputBuffer == null) {
                 Lib.log.appendLog("removeOrphanedDevices() installer returned null!");
                 return false;
             }
-            pattern = driver.regexPattern(Console.PatternChoice.ORPHANS);
-            if (pattern == null) {
-                Lib.log.appendLog("removeOrphanedDevices() getRegExPattern() returned null!");
-                return false;
-            }
-            Matcher matcher = pattern.matcher(outputBuffer);
-            while (matcher.find()) {
-                Lib.log.appendLog("removeOrphanedDevices() Removing orphaned device " + "\"@" + DataType.Strings.removeLeadingAndTrailingSpaces(matcher.group(0).replace("\"", "")) + "\"");
-                result = driver.remove("\"@" + DataType.Strings.removeLeadingAndTrailingSpaces(matcher.group(0).replace("\"", "")) + "\"");
-                if (result.equals("")) {
-                } else if (result.contains("device(s) are ready to be removed. To remove the devices, reboot the system.")) {
+            final Console.Batch batch = driver.batch();
+            PatternEngine.get().scan(outputBuffer, new PatternEngine.Handler() {
+                @Override
+                public void matched(Console.PatternChoice choice, CharSequence source, int start, int end) {
+                    String device = "\"@" + DataType.Strings.removeLeadingAndTrailingSpaces(source.subSequence(start, end).toString().replace("\"", "")) + "\"";
+                    Lib.log.appendLog("removeOrphanedDevices() Removing orphaned device " + device);
+                    batch.remove(device);
+                }
+            }, Console.PatternChoice.ORPHANS);
+            for (Console.BatchResult result : batch.execute()) {
+                if (result.outcome == Console.BatchOutcome.REBOOT_REQUIRED) {
                     resultSum++;
-                } else {
-                    Lib.log.appendLog("removeOrphanedDevices() installer returned null!");
                 }
-                i++;
+                if (result.succeeded()) {
+                    removed.incrementAndGet();
+                } else if (result.outcome == Console.BatchOutcome.FAILED) {
+                    removeFailures.incrementAndGet();
+                    Lib.log.appendLog("removeOrphanedDevices() installer failed to remove " + result.target);
+                }
             }
             return resultSum > 0;
         }
@@ -0,0 +1,196 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * KeywordAutomaton finds any of a set of keywords in a stream of
+ * characters, one character at a time and without keeping the text. It is
+ * an Aho-Corasick automaton with its failure links folded into a complete
+ * transition table, over an alphabet reduced to the characters the keywords
+ * contain; every other character is one class. A step is one table lookup,
+ * plus a binary search over the keywords' own non-ASCII characters when the
+ * character is not ASCII, however long the output or many the keywords.
+ * <p>
+ * The automaton itself is immutable and may be shared. Each stream keeps its
+ * own state, an int starting at START.
+ */
+public final class KeywordAutomaton {
+
+    /**
+     * START is the state before any character was read.
+     */
+    public static final int START = 0;
+
+    private final String[] keywords;
+    private final int[] asciiClass = new int[128];
+    private final char[] otherChars;
+    private final int[] otherClass;
+    private final int classes;
+    private final int[] next;
+    private final int[] match;
+
+    /**
+     * @param keywords keywords to find, matched exactly; empty and null
+     * keywords are ignored
+     */
+    public KeywordAutomaton(String... keywords) {
+        this.keywords = keywords.clone();
+        TreeSet<Character> alphabet = new TreeSet<>();
+        for (String keyword : keywords) {
+            if (keyword != null) {
+                for (char c : keyword.toCharArray()) {
+                    alphabet.add(c);
+                }
+            }
+        }
+
+        //class 0 is every character no keyword contains
+        int count = 1;
+        ArrayList<Character> other = new ArrayList<>();
+        for (char c : alphabet) {
+            if (c < 128) {
+                asciiClass[c] = count++;
+            } else {
+                other.add(c);
+            }
+        }
+        otherChars = new char[other.size()];
+        otherClass = new int[other.size()];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherChars[i] = other.get(i);
+            otherClass[i] = count++;
+        }
+        classes = count;
+
+        //trie
+        ArrayList<int[]> trie = new ArrayList<>();
+        ArrayList<Integer> outputs = new ArrayList<>();
+        trie.add(newRow());
+        outputs.add(-1);
+        for (int k = 0; k < this.keywords.length; k++) {
+            if (this.keywords[k] == null || this.keywords[k].isEmpty()) {
+                continue;
+            }
+            int state = START;
+            for (char c : this.keywords[k].toCharArray()) {
+                int cls = classOf(c);
+                if (trie.get(state)[cls] < 0) {
+                    trie.get(state)[cls] = trie.size();
+                    trie.add(newRow());
+                    outputs.add(-1);
+                }
+                state = trie.get(state)[cls];
+            }
+            if (outputs.get(state) < 0) {
+                outputs.set(state, k);
+            }
+        }
+
+        //breadth first, fill missing transitions from the failure state
+        int states = trie.size();
+        next = new int[states * classes];
+        match = new int[states];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < classes; cls++) {
+            int child = trie.get(START)[cls];
+            if (child < 0) {
+                next[cls] = START;
+            } else {
+                next[cls] = child;
+                fail[child] = START;
+                queue.add(child);
+            }
+        }
+        match[START] = -1;
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            match[state] = outputs.get(state) >= 0 ? outputs.get(state) : match[fail[state]];
+            for (int cls = 0; cls < classes; cls++) {
+                int child = trie.get(state)[cls];
+                if (child < 0) {
+                    next[state * classes + cls] = next[fail[state] * classes + cls];
+                } else {
+                    next[state * classes + cls] = child;
+                    fail[child] = next[fail[state] * classes + cls];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[classes];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClass[c];
+        }
+        int i = Arrays.binarySearch(otherChars, c);
+        return i < 0 ? 0 : otherClass[i];
+    }
+
+    /**
+     * step advances a stream by one character.
+     *
+     * @param state the stream's current state
+     * @param c the next character
+     * @return the new state
+     */
+    public int step(int state, char c) {
+        return next[state * classes + classOf(c)];
+    }
+
+    /**
+     * matched reports the keyword ending at the character which led to a
+     * state. When several keywords end there, the one listed first among
+     * the longest is reported.
+     *
+     * @param state a state returned by step
+     * @return index of the keyword as passed to the constructor, or -1
+     */
+    public int matched(int state) {
+        return match[state];
+    }
+
+    /**
+     * @param index as returned by matched
+     * @return the keyword
+     */
+    public String keyword(int index) {
+        return keywords[index];
+    }
+
+    /**
+     * @return false if there are no keywords, so nothing can match
+     */
+    public boolean hasKeywords() {
+        return next.length > classes; //more than the start state
+    }
+}
@@ -31,9 +31,10 @@ import CADI.Console.Log;
 public class Lib {
 
     public Lib() {
-        slash = System.getProperty("file.seperator");
+        slash = System.getProperty("file.separator");
         log = new Log();
         TempFolder = new Target.FileSystem().getTempFolder();
+        CADIMonitor.register();
     }
 
     public static String slash;
@@ -0,0 +1,290 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LogBuffer is a bounded ring of log records which any number of threads may
+ * append to and read from without locking.
+ * <p>
+ * Each append claims the next sequence number with a single atomic increment
+ * and publishes its record into slot (sequence mod capacity). Once the ring
+ * is full the oldest records are overwritten, so memory stays fixed however
+ * long the session runs. Readers hold a Cursor (a sequence number) and
+ * receive only the records published after it; records overwritten before a
+ * slow reader got to them are counted as dropped rather than blocking the
+ * writers.
+ */
+public final class LogBuffer {
+
+    public enum Level {
+
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * DEFAULT_CAPACITY is the number of records kept by a default LogBuffer.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Record is a single immutable log entry.
+     */
+    public static final class Record {
+
+        public final long sequence;
+        public final long timestamp;
+        public final Level level;
+        public final String thread;
+        public final String message;
+
+        /**
+         * newLine is false when the message continues on the same line as
+         * the next record.
+         */
+        public final boolean newLine;
+
+        Record(long sequence, long timestamp, Level level, String thread, String message, boolean newLine) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.newLine = newLine;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tT.%<tL %-5s [%s] %s", timestamp, level, thread, message);
+        }
+    }
+
+    private final AtomicReferenceArray<Record> slots;
+    private final int mask;
+
+    /**
+     * next is the sequence number the next append will claim.
+     */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * floor is the first sequence number still visible after clear().
+     */
+    private final AtomicLong floor = new AtomicLong();
+
+    public LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of records to keep, rounded up to a power of two
+     */
+    public LogBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * append adds a record stamped with the current time and thread.
+     *
+     * @param level severity of the message
+     * @param message text to log
+     * @param newLine false if the next record continues this line
+     */
+    public void append(Level level, String message, boolean newLine) {
+        long sequence = next.getAndIncrement();
+        Record record = new Record(sequence, System.currentTimeMillis(), level, Thread.currentThread().getName(), String.valueOf(message), newLine);
+        int slot = (int) (sequence & mask);
+        while (true) {
+            Record current = slots.get(slot);
+            if (current != null && current.sequence > sequence) {
+                return; //a writer one lap ahead already took the slot
+            }
+            if (slots.compareAndSet(slot, current, record)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * clear hides every record appended so far from cursors and readAll.
+     */
+    public void clear() {
+        long end = next.get();
+        long current;
+        while ((current = floor.get()) < end && !floor.compareAndSet(current, end)) {
+            //another clear moved the floor, try again
+        }
+    }
+
+    /**
+     * size reports how many records are currently retained and visible.
+     *
+     * @return number of visible records
+     */
+    public int size() {
+        long end = next.get();
+        return (int) Math.max(0, end - Math.max(floor.get(), end - capacity()));
+    }
+
+    /**
+     * @return total number of records ever appended
+     */
+    public long appended() {
+        return next.get();
+    }
+
+    /**
+     * cursor creates a Cursor positioned at the oldest visible record.
+     *
+     * @return a new Cursor
+     */
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * tail creates a Cursor positioned after the newest record, so it only
+     * receives records appended from now on.
+     *
+     * @return a new Cursor
+     */
+    public Cursor tail() {
+        return new Cursor(next.get());
+    }
+
+    /**
+     * readAll returns every visible record as text, each followed by the
+     * line separator unless it continues on the next record.
+     *
+     * @return the visible log text
+     */
+    public String readAll() {
+        StringBuilder sb = new StringBuilder();
+        cursor().readText(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Cursor remembers a reader's position in a LogBuffer. A Cursor is meant
+     * to be used by one reader thread.
+     */
+    public final class Cursor {
+
+        private long position;
+        private long dropped;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * read returns the records published since the previous read and
+         * advances the cursor past them.
+         *
+         * @return new records in sequence order, empty if there are none
+         */
+        public ArrayList<Record> read() {
+            final ArrayList<Record> records = new ArrayList<>();
+            advance(new Visitor() {
+                @Override
+                public void visit(Record record) {
+                    records.add(record);
+                }
+            });
+            return records;
+        }
+
+        /**
+         * readText appends the text of the records published since the
+         * previous read, formatted as Console.Log always has.
+         *
+         * @param sb receives the text
+         * @return number of records appended
+         */
+        public int readText(final StringBuilder sb) {
+            final String CRLF = System.lineSeparator();
+            final int[] count = new int[1];
+            advance(new Visitor() {
+                @Override
+                public void visit(Record record) {
+                    sb.append(record.message);
+                    if (record.newLine) {
+                        sb.append(CRLF);
+                    }
+                    count[0]++;
+                }
+            });
+            return count[0];
+        }
+
+        /**
+         * @return number of records overwritten before this cursor read them
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return sequence number of the next record this cursor will read
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        private void advance(Visitor visitor) {
+            long end = next.get();
+            long start = Math.max(position, floor.get());
+            long oldest = end - capacity();
+            if (start < oldest) {
+                dropped += oldest - start;
+                start = oldest;
+            }
+            long s = start;
+            while (s < end) {
+                Record record = slots.get((int) (s & mask));
+                if (record == null || record.sequence < s) {
+                    break; //claimed but not yet published, pick it up next time
+                }
+                if (record.sequence > s) {
+                    dropped++; //overwritten while we were reading
+                } else {
+                    visitor.visit(record);
+                }
+                s++;
+            }
+            position = s;
+        }
+    }
+
+    private interface Visitor {
+
+        void visit(Record record);
+    }
+}
@@ -0,0 +1,499 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OutputPipeline reads the output of the processes run by
+ * Target.HostSystem.Shell.
+ * <p>
+ * Bytes are read in blocks into buffers each thread reuses, decoded with the
+ * OEM code page console programs such as the driver installer write in, and
+ * split into lines, "\r\n", "\n" and "\r" alike. Lines go either to a
+ * LineListener or, without creating a String per line, into a Sink of
+ * bounded size. A second stream of the same process, normally its standard
+ * error, is drained at the same time on a shared pool thread, so a child
+ * never blocks on a full pipe nobody reads.
+ */
+public final class OutputPipeline {
+
+    /**
+     * CHARSET_PROPERTY names a system property which overrides the charset
+     * process output is decoded with.
+     */
+    public static final String CHARSET_PROPERTY = "cadi.shell.charset";
+
+    /**
+     * DEFAULT_LIMIT is the number of characters a Sink created by the Shell
+     * keeps; beyond it the oldest characters are dropped.
+     */
+    public static final int DEFAULT_LIMIT = 1 << 23;
+
+    static final int BUFFER = 8192;
+
+    private static final ThreadPoolExecutor drains = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CADI output drain " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private static volatile Charset oem;
+
+    private OutputPipeline() {
+    }
+
+    /**
+     * Output receives decoded characters. The CharBuffer is reused once
+     * write returns.
+     */
+    interface Output {
+
+        void write(CharBuffer chars);
+
+        void end();
+    }
+
+    /**
+     * Buffers are the byte and char buffers, and the decoder, of one
+     * thread.
+     */
+    private static final class Buffers {
+
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER);
+        final CharBuffer chars = CharBuffer.allocate(BUFFER);
+        CharsetDecoder decoder;
+
+        CharsetDecoder decoder(Charset charset) {
+            if (decoder == null || !decoder.charset().equals(charset)) {
+                decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            return decoder.reset();
+        }
+    }
+
+    /**
+     * Sink collects output up to a limit. Once full it keeps the most recent
+     * characters, as the end of an installer's output carries its result.
+     * A Sink is written by one thread at a time.
+     */
+    public static final class Sink implements CharSequence {
+
+        private final int limit;
+        private char[] buffer;
+        private int start;
+        private int length;
+        private long dropped;
+
+        /**
+         * @param limit number of characters kept
+         */
+        public Sink(int limit) {
+            this.limit = Math.max(1, limit);
+            this.buffer = new char[Math.min(256, this.limit)];
+        }
+
+        public void append(char c) {
+            if (length < buffer.length) {
+                buffer[length++] = c; //start stays 0 until the Sink is full
+                return;
+            }
+            if (buffer.length < limit) {
+                char[] grown = new char[(int) Math.min(limit, buffer.length * 2L)];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+                buffer[length++] = c;
+                return;
+            }
+            buffer[start] = c;
+            start = start + 1 == buffer.length ? 0 : start + 1;
+            dropped++;
+        }
+
+        /**
+         * @return number of characters dropped because the Sink was full
+         */
+        public long dropped() {
+            return dropped;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + " length " + length);
+            }
+            int i = start + index;
+            return buffer[i < buffer.length ? i : i - buffer.length];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            int head = Math.min(length, buffer.length - start);
+            StringBuilder sb = new StringBuilder(length);
+            sb.append(buffer, start, head).append(buffer, 0, length - head);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Lines splits characters into lines for a LineListener, or copies them
+     * to a Sink with every line ending made "\n".
+     */
+    private static final class Lines implements Output {
+
+        private final Target.HostSystem.Shell.LineListener listener;
+        private final Sink sink;
+        private final StringBuilder line = new StringBuilder();
+        private boolean afterCR;
+        private boolean open;
+
+        Lines(Target.HostSystem.Shell.LineListener listener, Sink sink) {
+            this.listener = listener;
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n' && afterCR) {
+                    afterCR = false;
+                    continue;
+                }
+                afterCR = c == '\r';
+                if (c == '\n' || c == '\r') {
+                    endLine();
+                } else {
+                    open = true;
+                    if (sink != null) {
+                        sink.append(c);
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void end() {
+            if (open) {
+                endLine();
+            }
+        }
+
+        private void endLine() {
+            open = false;
+            if (sink != null) {
+                sink.append('\n');
+            } else {
+                listener.line(line.toString());
+                line.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * lines creates an Output handing each line to a listener.
+     */
+    static Output lines(Target.HostSystem.Shell.LineListener listener) {
+        return new Lines(listener, null);
+    }
+
+    /**
+     * lines creates an Output copying the lines to a Sink, each followed by
+     * "\n".
+     */
+    static Output lines(Sink sink) {
+        return new Lines(null, sink);
+    }
+
+    /**
+     * drain reads a stream to its end, handing each line to a listener on
+     * the calling thread.
+     *
+     * @param stream process output
+     * @param charset charset the output is written in
+     * @param listener receives each line without its terminator
+     * @throws IOException if the stream cannot be read
+     */
+    public static void drain(InputStream stream, Charset charset, Target.HostSystem.Shell.LineListener listener) throws IOException {
+        drain(stream, charset, new Lines(listener, null));
+    }
+
+    /**
+     * drain reads a stream to its end into a Sink, each line followed by
+     * "\n".
+     *
+     * @param stream process output
+     * @param charset charset the output is written in
+     * @param sink receives the output
+     * @throws IOException if the stream cannot be read
+     */
+    public static void drain(InputStream stream, Charset charset, Sink sink) throws IOException {
+        drain(stream, charset, new Lines(null, sink));
+    }
+
+    /**
+     * drain decodes a stream into an Output.
+     */
+    static void drain(InputStream stream, Charset charset, Output output) throws IOException {
+        Buffers b = buffers.get();
+        ByteBuffer in = b.bytes;
+        CharBuffer out = b.chars;
+        CharsetDecoder decoder = b.decoder(charset);
+        in.clear();
+        out.clear();
+        try {
+            while (true) {
+                int read = stream.read(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                boolean eof = read == -1;
+                if (!eof) {
+                    in.position(in.position() + read);
+                }
+                in.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(in, out, eof);
+                    deliver(out, output);
+                } while (result.isOverflow());
+                in.compact();
+                if (eof) {
+                    do {
+                        result = decoder.flush(out);
+                        deliver(out, output);
+                    } while (result.isOverflow());
+                    break;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        output.end();
+    }
+
+    private static void deliver(CharBuffer out, Output output) {
+        out.flip();
+        if (out.hasRemaining()) {
+            output.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * drainInBackground drains a stream into a Sink on a shared pool thread.
+     *
+     * @param stream process output, normally its standard error
+     * @param charset charset the output is written in
+     * @param sink receives the output, or null to discard it
+     * @return completes when the stream has ended
+     */
+    public static Future<?> drainInBackground(InputStream stream, Charset charset, Sink sink) {
+        Output output = sink != null ? new Lines(null, sink) : new Output() {
+            @Override
+            public void write(CharBuffer chars) {
+                chars.position(chars.limit());
+            }
+
+            @Override
+            public void end() {
+            }
+        };
+        return drainInBackground(stream, charset, output, null);
+    }
+
+    /**
+     * drainInBackground decodes a stream into an Output on a shared pool
+     * thread.
+     *
+     * @param whenDone run once the stream has ended or failed, may be null
+     * @return completes when the stream has ended
+     */
+    static Future<?> drainInBackground(final InputStream stream, final Charset charset, final Output output, final Runnable whenDone) {
+        return drains.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    drain(stream, charset, output);
+                } finally {
+                    if (whenDone != null) {
+                        whenDone.run();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Detachable passes output on until it is detached. A reader abandoned
+     * on a stream which never ends may then go on without touching an Output
+     * its caller has returned.
+     */
+    static final class Detachable implements Output {
+
+        private final Output output;
+        private boolean detached;
+
+        Detachable(Output output) {
+            this.output = output;
+        }
+
+        @Override
+        public synchronized void write(CharBuffer chars) {
+            if (detached) {
+                chars.position(chars.limit());
+            } else {
+                output.write(chars);
+            }
+        }
+
+        @Override
+        public synchronized void end() {
+            if (!detached) {
+                detached = true;
+                output.end();
+            }
+        }
+
+        /**
+         * detach ends the output now; anything read later is discarded.
+         */
+        void detach() {
+            end();
+        }
+    }
+
+    /**
+     * await waits for a background drain, which ends with its process.
+     *
+     * @param drain as returned by drainInBackground
+     * @throws IOException if the stream could not be read
+     */
+    public static void await(Future<?> drain) throws IOException {
+        try {
+            drain.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            drain.cancel(true);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * oemCharset returns the charset console programs write their output
+     * in: the CHARSET_PROPERTY if set, on Windows the OEM code page reported
+     * by chcp, otherwise the platform default. It is looked up once.
+     *
+     * @return the charset to decode process output with
+     */
+    public static Charset oemCharset() {
+        Charset charset = oem;
+        if (charset == null) {
+            synchronized (OutputPipeline.class) {
+                if (oem == null) {
+                    oem = lookupCharset();
+                    Lib.log.appendLog("OutputPipeline() decoding process output as " + oem.name());
+                }
+                charset = oem;
+            }
+        }
+        return charset;
+    }
+
+    private static Charset lookupCharset() {
+        String name = System.getProperty(CHARSET_PROPERTY);
+        if (name != null && Charset.isSupported(name)) {
+            return Charset.forName(name);
+        }
+        if (!Target.HostSystem.isCompatible()) {
+            return Charset.defaultCharset();
+        }
+        Sink output = new Sink(256);
+        try {
+            ProcessSupervisor.Supervised chcp = ProcessSupervisor.start(new ProcessBuilder("cmd.exe", "/C", "chcp").redirectErrorStream(true), "chcp", 5000);
+            try {
+                drain(chcp.process().getInputStream(), StandardCharsets.US_ASCII, output);
+                chcp.waitFor();
+            } finally {
+                chcp.release();
+            }
+        } catch (IOException ex) {
+            Lib.log.appendLog("OutputPipeline() chcp failed: " + ex.getLocalizedMessage());
+        }
+        Matcher codePage = Pattern.compile("(\\d+)").matcher(output);
+        if (codePage.find()) {
+            String page = codePage.group(1);
+            if (page.equals("65001")) {
+                return StandardCharsets.UTF_8;
+            }
+            for (String candidate : new String[]{"cp" + page, "IBM" + page, "x-IBM" + page, "windows-" + page, "x-windows-" + page}) {
+                if (Charset.isSupported(candidate)) {
+                    return Charset.forName(candidate);
+                }
+            }
+        }
+        return Charset.defaultCharset();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import CADI.Console.PatternChoice;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PatternEngine classifies installer output against every PatternChoice in a
+ * single pass over the text. Each line is matched in place through Matcher
+ * regions, so the Patterns (compiled once by PatternChoice) and the Matchers
+ * (created once per engine) are reused and the scan itself allocates
+ * nothing.
+ *
+ * Matchers are not thread safe; use {@link #get()} for an engine owned by the
+ * calling thread.
+ */
+public final class PatternEngine {
+
+    /**
+     * Handler receives every match found by a scan. The matched text is
+     * source.subSequence(start, end); it is passed as bounds so that callers
+     * which only count matches never allocate.
+     */
+    public interface Handler {
+
+        void matched(PatternChoice choice, CharSequence source, int start, int end);
+    }
+
+    private static final ThreadLocal<PatternEngine> engines = new ThreadLocal<PatternEngine>() {
+        @Override
+        protected PatternEngine initialValue() {
+            return new PatternEngine();
+        }
+    };
+
+    /**
+     * INF_NAME matches the first line of a dp_enum record, e.g. "oem12.inf".
+     * The Provider and Class lines which follow it are checked by the scan.
+     */
+    private static final Pattern INF_NAME = Pattern.compile("[o|Oe|Em|M]{3}[0-9]{1,4}\\.inf");
+    private static final Pattern INF_PROVIDER = Pattern.compile("\\s*Provider:\\slibusbK\\s*");
+    private static final Pattern INF_CLASS = Pattern.compile("\\s*Class:\\s*libusbK USB Devices\\s*");
+
+    private final Matcher[] matchers = new Matcher[PatternChoice.values().length];
+    private final Matcher infName = INF_NAME.matcher("");
+    private final Matcher infProvider = INF_PROVIDER.matcher("");
+    private final Matcher infClass = INF_CLASS.matcher("");
+
+    public PatternEngine() {
+        for (PatternChoice choice : PatternChoice.values()) {
+            matchers[choice.ordinal()] = choice.pattern().matcher("");
+        }
+    }
+
+    /**
+     * @return the PatternEngine owned by the calling thread
+     */
+    public static PatternEngine get() {
+        return engines.get();
+    }
+
+    /**
+     * scan walks the output once, line by line, and reports each match of
+     * the requested patterns to the handler in output order.
+     *
+     * @param output installer output
+     * @param handler receives each match
+     * @param choices patterns to look for; all of them if none are given
+     */
+    public void scan(CharSequence output, Handler handler, PatternChoice... choices) {
+        int wanted = 0;
+        if (choices.length == 0) {
+            wanted = (1 << matchers.length) - 1;
+        }
+        for (PatternChoice choice : choices) {
+            wanted |= 1 << choice.ordinal();
+        }
+        for (Matcher m : matchers) {
+            m.reset(output);
+        }
+        infName.reset(output);
+        infProvider.reset(output);
+        infClass.reset(output);
+
+        boolean wantInf = (wanted & (1 << PatternChoice.INF.ordinal())) != 0;
+        boolean wantDevices = (wanted & (1 << PatternChoice.ALLDEVICES.ordinal())) != 0;
+        boolean wantMatching = (wanted & (1 << PatternChoice.MATCHINGDEVICES.ordinal())) != 0;
+        int infStart = -1;
+        int infEnd = -1;
+        int infStage = 0;
+        int length = output.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            /*
+             * One pass over the characters of the line records where each
+             * pattern could start, so every Matcher below is anchored
+             * (lookingAt) or skipped rather than retried at every offset.
+             */
+            int lineEnd = lineStart;
+            int separator = -1;
+            int colons = 0;
+            int vid = -1;
+            boolean spaceDigit = false;
+            boolean digit = false;
+            char previous = ' ';
+            while (lineEnd < length) {
+                char c = output.charAt(lineEnd);
+                if (c == '\n' || c == '\r') {
+                    break;
+                } else if (c == ':') {
+                    colons++;
+                    if (separator < 0) {
+                        separator = lineEnd;
+                    }
+                } else if (c >= '0' && c <= '9') {
+                    digit = true;
+                    spaceDigit |= Character.isWhitespace(previous);
+                } else if (c == '_' && vid < 0 && lineEnd >= 3 && output.charAt(lineEnd - 3) == 'V') {
+                    vid = lineEnd - 3;
+                }
+                previous = c;
+                lineEnd++;
+            }
+            if (vid >= 3) {
+                int idStart = output.charAt(vid - 3) == 'U' ? vid - 3 : vid - 4;
+                if (idStart >= lineStart && output.charAt(idStart) == 'U') {
+                    lookingAt(PatternChoice.ORPHANS, wanted, idStart, lineEnd, output, handler);
+                    lookingAt(PatternChoice.CASUALDRIVER, wanted, idStart, lineEnd, output, handler);
+                    lookingAt(PatternChoice.INSTALL, wanted, idStart, lineEnd, output, handler);
+                }
+            }
+            if (wantDevices && separator >= 0) {
+                int tokenEnd = separator;
+                while (tokenEnd > lineStart && (output.charAt(tokenEnd - 1) == ' ' || output.charAt(tokenEnd - 1) == '\t')) {
+                    tokenEnd--;
+                }
+                int tokenStart = tokenEnd;
+                while (tokenStart > lineStart && !Character.isWhitespace(output.charAt(tokenStart - 1))) {
+                    tokenStart--;
+                }
+                lookingAt(PatternChoice.ALLDEVICES, wanted, tokenStart, lineEnd, output, handler);
+                if (colons > 1) {
+                    findAll(PatternChoice.ALLDEVICES, wanted, separator + 1, lineEnd, output, handler);
+                }
+            }
+            if (wantMatching && spaceDigit) {
+                findAll(PatternChoice.MATCHINGDEVICES, wanted, lineStart, lineEnd, output, handler);
+            }
+            if (wantInf && lineEnd > lineStart) {
+                if (digit && infName.region(lineStart, lineEnd).find()) {
+                    infStart = infName.start();
+                    infEnd = infName.end();
+                    infStage = 1;
+                } else if (infStage == 1 && infProvider.region(lineStart, lineEnd).matches()) {
+                    infStage = 2;
+                } else if (infStage == 2 && infClass.region(lineStart, lineEnd).matches()) {
+                    handler.matched(PatternChoice.INF, output, infStart, infEnd);
+                    infStage = 0;
+                } else {
+                    infStage = 0;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private void lookingAt(PatternChoice choice, int wanted, int start, int end, CharSequence output, Handler handler) {
+        if ((wanted & (1 << choice.ordinal())) == 0) {
+            return;
+        }
+        Matcher m = matchers[choice.ordinal()];
+        m.region(start, end);
+        if (m.lookingAt()) {
+            handler.matched(choice, output, m.start(), m.end());
+        }
+    }
+
+    private void findAll(PatternChoice choice, int wanted, int start, int end, CharSequence output, Handler handler) {
+        if ((wanted & (1 << choice.ordinal())) == 0) {
+            return;
+        }
+        Matcher m = matchers[choice.ordinal()];
+        m.region(start, end);
+        while (m.find()) {
+            handler.matched(choice, output, m.start(), m.end());
+        }
+    }
+
+    /**
+     * count returns the number of matches of a single pattern.
+     *
+     * @param output installer output
+     * @param choice pattern to count
+     * @return number of matches
+     */
+    public int count(CharSequence output, PatternChoice choice) {
+        final int[] count = new int[1];
+        scan(output, new Handler() {
+            @Override
+            public void matched(PatternChoice choice, CharSequence source, int start, int end) {
+                count[0]++;
+            }
+        }, choice);
+        return count[0];
+    }
+}
@@ -0,0 +1,496 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * PayloadCache materializes the entries of bundled archives, such as the
+ * driver package, in a persistent folder named after the SHA-256 of the
+ * archive. Entries are written lazily, one at a time, when a caller first
+ * needs them, so a host never writes files it does not use and later runs
+ * reuse what earlier runs wrote.
+ * <p>
+ * The archive itself is copied next to its folder once, so entries can be
+ * read at random through the shared ArchivePool instead of inflating the
+ * archive from the start. The copy is checked against the SHA-256 of the
+ * resource, and each entry against its CRC-32, as they are written, so
+ * damage is reported at once rather than by a failing driver installer.
+ * Each entry is written to a temporary file and renamed into place, and an
+ * entry on disk is trusted only while its size matches the archive's
+ * central directory. Threads of one JVM share the archive preparation and
+ * take turns writing entries; separate JVMs serialize on an exclusive
+ * FileLock and re-check the folder once they hold it.
+ */
+public final class PayloadCache {
+
+    /**
+     * ROOT_PROPERTY names a system property which moves the cache out of its
+     * default location.
+     */
+    public static final String ROOT_PROPERTY = "cadi.payload.cache";
+
+    private static final ConcurrentHashMap<String, File> folders = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> digests = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, FutureTask<Archive>> archives = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<File, Object> monitors = new ConcurrentHashMap<>();
+    private static volatile Unzip.ProgressListener progressListener;
+
+    private PayloadCache() {
+    }
+
+    /**
+     * Archive is the local copy of a bundled archive with its central
+     * directory, indexed by entry name.
+     */
+    private static final class Archive {
+
+        final File file;
+        final File folder;
+        final LinkedHashMap<String, ZipEntry> entries = new LinkedHashMap<>();
+
+        Archive(File file, File folder) {
+            this.file = file;
+            this.folder = folder;
+        }
+    }
+
+    /**
+     * DamagedCopy is thrown when an entry read from the local copy does not
+     * match the copy's own central directory, so the copy itself is damaged.
+     */
+    private static final class DamagedCopy extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        DamagedCopy(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * getRoot returns the folder holding every cache folder: the folder named
+     * by the cadi.payload.cache property if set, otherwise CADI\payload under
+     * %LOCALAPPDATA% on Windows or .cadi/payload in the user's home.
+     *
+     * @return the cache root, which may not exist yet
+     */
+    public static File getRoot() {
+        String configured = System.getProperty(ROOT_PROPERTY);
+        if (configured != null && !configured.isEmpty()) {
+            return new File(configured);
+        }
+        String local = System.getenv("LOCALAPPDATA");
+        if (local != null && !local.isEmpty()) {
+            return new File(new File(local, "CADI"), "payload");
+        }
+        return new File(new File(System.getProperty("user.home"), ".cadi"), "payload");
+    }
+
+    /**
+     * setProgressListener sets the listener told about every archive copy
+     * and entry the cache writes from now on.
+     *
+     * @param listener the listener, or null for none
+     */
+    public static void setProgressListener(Unzip.ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * folder names the cache folder of a bundled archive without writing
+     * anything. The archive is hashed on first use only.
+     *
+     * @param resource name of the archive resource, e.g.
+     * "/CADI/resource/WinUSB_01011.zip"
+     * @return the cache folder, which may not exist yet
+     * @throws IOException if the resource cannot be read
+     */
+    public static File folder(String resource) throws IOException {
+        File folder = folders.get(resource);
+        if (folder == null) {
+            String name = resource.substring(resource.lastIndexOf('/') + 1);
+            if (name.toLowerCase().endsWith(".zip")) {
+                name = name.substring(0, name.length() - 4);
+            }
+            folder = new File(getRoot(), name + "-" + digest(resource).substring(0, 16));
+            folders.putIfAbsent(resource, folder);
+        }
+        return folder;
+    }
+
+    /**
+     * get makes sure the named entries of a bundled archive are on disk,
+     * writing only those which are missing or damaged. An entry which reads
+     * back damaged from the local copy of the archive causes the copy to be
+     * discarded and copied again from the resource, once.
+     *
+     * @param resource name of the archive resource
+     * @param entries entry names as stored in the archive; a name ending
+     * with "/" stands for every file below that folder
+     * @return the cache folder holding the entries
+     * @throws IOException if an entry does not exist or cannot be written
+     */
+    public static File get(String resource, String... entries) throws IOException {
+        Archive archive = archive(resource);
+        try {
+            materialize(archive, entries);
+        } catch (DamagedCopy ex) {
+            Lib.log.appendLog("PayloadCache() local copy " + archive.file + " is damaged, copying it again");
+            discard(resource, archive);
+            archive = archive(resource);
+            materialize(archive, entries);
+        }
+        return archive.folder;
+    }
+
+    private static void materialize(Archive archive, String[] entries) throws IOException {
+        for (ZipEntry entry : select(archive, entries)) {
+            File target = target(archive, entry);
+            if (!matches(target, entry)) {
+                materialize(archive, entry, target);
+            }
+        }
+    }
+
+    /**
+     * discard deletes a damaged local copy and forgets its preparation, so
+     * the next use copies the archive out of the resources again.
+     */
+    private static void discard(String resource, final Archive archive) throws IOException {
+        FutureTask<Archive> task = archives.get(resource);
+        try {
+            if (task != null && task.isDone() && task.get() == archive) {
+                archives.remove(resource, task);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            archives.remove(resource, task);
+        }
+        ArchivePool.shared().close(archive.file);
+        locked(archive.folder, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (archive.file.exists() && !archive.file.delete()) {
+                    Lib.log.appendLog("PayloadCache() could not delete " + archive.file);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * isExtracted reports whether the named entries are already on disk.
+     * Nothing is copied or written.
+     *
+     * @param resource name of the archive resource
+     * @param entries entry names as for get
+     * @return true if get would not need to write anything
+     */
+    public static boolean isExtracted(String resource, String... entries) {
+        FutureTask<Archive> task = archives.get(resource);
+        if (task == null || !task.isDone()) {
+            return false;
+        }
+        try {
+            Archive archive = task.get();
+            for (ZipEntry entry : select(archive, entries)) {
+                if (!matches(target(archive, entry), entry)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException | ExecutionException | IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * archive returns the local copy of a bundled archive, copying it out of
+     * the resources the first time any JVM needs it. Threads of this JVM
+     * share one preparation.
+     */
+    private static Archive archive(final String resource) throws IOException {
+        while (true) {
+            FutureTask<Archive> task = archives.get(resource);
+            if (task == null) {
+                FutureTask<Archive> prepare = new FutureTask<>(new Callable<Archive>() {
+                    @Override
+                    public Archive call() throws IOException {
+                        return prepare(resource);
+                    }
+                });
+                task = archives.putIfAbsent(resource, prepare);
+                if (task == null) {
+                    task = prepare;
+                    prepare.run();
+                }
+            }
+            try {
+                Archive archive = task.get();
+                if (archive.file.isFile()) {
+                    return archive;
+                }
+                //removed behind our back, copy it again
+                archives.remove(resource, task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " + resource);
+            } catch (ExecutionException ex) {
+                archives.remove(resource, task);
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    private static Archive prepare(String resource) throws IOException {
+        File folder = folder(resource);
+        Archive archive = new Archive(new File(folder.getPath() + ".zip"), folder);
+        if (!archive.file.isFile() || !index(archive)) {
+            locked(archive.folder, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    if (archive.file.isFile() && index(archive)) {
+                        return null; //copied by another process meanwhile
+                    }
+                    Lib.log.appendLog("PayloadCache() copying " + resource + " to " + archive.file);
+                    File partial = new File(archive.file.getPath() + ".partial");
+                    try (InputStream in = PayloadCache.class.getResourceAsStream(resource)) {
+                        if (in == null) {
+                            throw new FileNotFoundException("@resourceNotFound " + resource);
+                        }
+                        ProgressTracker tracker = ProgressTracker.start(progressListener, resource, -1);
+                        try {
+                            Checksums.Digest copied = new Checksums.Digest(Checksums.Algorithm.SHA256);
+                            copy(in, partial, tracker.entry(archive.file.getName(), -1), copied);
+                            String expected = digest(resource);
+                            String actual = copied.sha256();
+                            if (actual != null && !actual.equals(expected)) {
+                                partial.delete();
+                                throw Checksums.mismatch(resource, "SHA-256", expected, actual);
+                            }
+                            tracker.complete();
+                        } finally {
+                            tracker.finish();
+                        }
+                    }
+                    Files.move(partial.toPath(), archive.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    if (!index(archive)) {
+                        throw new IOException("@unreadableArchive " + archive.file);
+                    }
+                    return null;
+                }
+            });
+        }
+        return archive;
+    }
+
+    /**
+     * index reads the central directory of the local copy.
+     *
+     * @return false if the copy is not a readable archive
+     */
+    private static boolean index(Archive archive) {
+        archive.entries.clear();
+        try (ArchivePool.Reader reader = ArchivePool.shared().acquire(archive.file)) {
+            for (ZipEntry entry : reader.entries()) {
+                if (!entry.isDirectory()) {
+                    archive.entries.put(entry.getName(), entry);
+                }
+            }
+            return !archive.entries.isEmpty();
+        } catch (IOException ex) {
+            Lib.log.appendLog("PayloadCache() unreadable archive " + archive.file + " " + ex.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private static ArrayList<ZipEntry> select(Archive archive, String[] names) throws FileNotFoundException {
+        ArrayList<ZipEntry> selected = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith("/")) {
+                for (ZipEntry entry : archive.entries.values()) {
+                    if (entry.getName().startsWith(name)) {
+                        selected.add(entry);
+                    }
+                }
+            } else if (archive.entries.containsKey(name)) {
+                selected.add(archive.entries.get(name));
+            } else {
+                throw new FileNotFoundException("@entryNotFound " + name + " in " + archive.file);
+            }
+        }
+        return selected;
+    }
+
+    private static File target(Archive archive, ZipEntry entry) {
+        return new File(archive.folder, entry.getName().replace('/', File.separatorChar));
+    }
+
+    /**
+     * matches checks an entry on disk against the central directory.
+     */
+    private static boolean matches(File target, ZipEntry entry) {
+        return target.isFile() && target.length() == entry.getSize();
+    }
+
+    /**
+     * materialize writes one entry to disk, unless another thread or
+     * process did so while we waited for the lock.
+     */
+    private static void materialize(final Archive archive, final ZipEntry entry, final File target) throws IOException {
+        locked(archive.folder, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (matches(target, entry)) {
+                    return null;
+                }
+                File parent = target.getParentFile();
+                if (!new Target.FileSystem().makeFolder(parent.getPath())) {
+                    throw new IOException("@couldNotCreateFolder " + parent);
+                }
+                Lib.log.appendLog("PayloadCache() extracting " + entry.getName() + " to " + archive.folder);
+                File partial = new File(target.getPath() + ".partial");
+                Checksums.Digest written = new Checksums.Digest(Checksums.Algorithm.CRC32);
+                ProgressTracker tracker = ProgressTracker.start(progressListener, archive.file.getName(), entry.getSize());
+                try {
+                    try (InputStream in = ArchivePool.shared().openStream(archive.file, entry.getName())) {
+                        copy(in, partial, tracker.entry(entry.getName(), entry.getSize()), written);
+                    } catch (ZipException ex) {
+                        partial.delete();
+                        throw new DamagedCopy("@damagedEntry " + entry.getName() + " in " + archive.file + " " + ex.getLocalizedMessage());
+                    }
+                    if (written.length() != entry.getSize()) {
+                        partial.delete();
+                        throw new DamagedCopy("@damagedEntry " + entry.getName() + " in " + archive.file);
+                    }
+                    try {
+                        written.verifyCrc32(entry.getName() + " in " + archive.file, entry.getCrc());
+                    } catch (IOException ex) {
+                        partial.delete();
+                        throw new DamagedCopy(ex.getMessage());
+                    }
+                    tracker.complete();
+                } finally {
+                    tracker.finish();
+                }
+                Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * locked runs an action while holding the folder's lock: a monitor for
+     * the threads of this JVM, since a FileLock is held by the JVM as a
+     * whole, and an exclusive FileLock on the folder's lock file for every
+     * other process.
+     */
+    private static void locked(File folder, Callable<Void> action) throws IOException {
+        Object monitor = monitors.get(folder);
+        if (monitor == null) {
+            monitors.putIfAbsent(folder, new Object());
+            monitor = monitors.get(folder);
+        }
+        synchronized (monitor) {
+            File root = folder.getParentFile();
+            if (!new Target.FileSystem().makeFolder(root.getPath())) {
+                throw new IOException("@couldNotCreateFolder " + root);
+            }
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(root, folder.getName() + ".lock"), "rw");
+                    FileLock lock = lockFile.getChannel().lock()) {
+                if (!lock.isValid()) {
+                    throw new IOException("@couldNotLockFolder " + folder);
+                }
+                action.call();
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * copy writes a stream to a file, passing every block to the digest on
+     * the way.
+     */
+    private static void copy(InputStream in, File destination, ProgressTracker.Entry progress, Checksums.Digest digest) throws IOException {
+        byte[] data = new byte[65536];
+        int read;
+        try (OutputStream out = new FileOutputStream(destination)) {
+            while ((read = in.read(data)) != -1) {
+                out.write(data, 0, read);
+                digest.update(data, 0, read);
+                progress.advance(read);
+            }
+        }
+    }
+
+    /**
+     * digest hashes a bundled resource with SHA-256, once per resource.
+     *
+     * @return the hash in lower case hexadecimal
+     */
+    private static String digest(String resource) throws IOException {
+        String known = digests.get(resource);
+        if (known != null) {
+            return known;
+        }
+        Checksums.Digest sha = new Checksums.Digest(Checksums.Algorithm.SHA256);
+        try (InputStream in = PayloadCache.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new FileNotFoundException("@resourceNotFound " + resource);
+            }
+            byte[] data = new byte[65536];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                sha.update(data, 0, read);
+            }
+        }
+        String hex = sha.sha256();
+        if (hex == null) {
+            throw new IOException("@noSHA256 " + resource);
+        }
+        digests.putIfAbsent(resource, hex);
+        return hex;
+    }
+}
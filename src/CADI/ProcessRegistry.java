@@ -0,0 +1,160 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ProcessRegistry tracks every installer command currently running, whether
+ * it was launched by Target.HostSystem.Shell or handed to the ElevationBroker
+ * helper, so running commands can be listed and cancelled from outside the
+ * thread waiting for them.
+ */
+public final class ProcessRegistry {
+
+    private static final ConcurrentHashMap<Long, Entry> running = new ConcurrentHashMap<>();
+    private static final AtomicLong ids = new AtomicLong();
+
+    private ProcessRegistry() {
+    }
+
+    /**
+     * Entry is one running command.
+     */
+    public static final class Entry {
+
+        public final long id;
+        public final String command;
+        public final long startedAt;
+        private final Process process;
+        private volatile boolean cancelled;
+        private volatile Runnable onCancel;
+
+        private Entry(long id, String command, Process process) {
+            this.id = id;
+            this.command = command;
+            this.process = process;
+            this.startedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return milliseconds since the command started
+         */
+        public long age() {
+            return System.currentTimeMillis() - startedAt;
+        }
+
+        /**
+         * @return true once cancel() was called for this command
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * cancel marks the command cancelled and destroys its process and
+         * the processes it started.
+         */
+        public void cancel() {
+            cancelled = true;
+            ProcessSupervisor.destroyTree(process);
+            Runnable hook = onCancel;
+            if (hook != null) {
+                hook.run();
+            }
+        }
+
+        /**
+         * onCancel sets a hook run after cancel destroyed the process, to
+         * wake the thread waiting for it.
+         */
+        void onCancel(Runnable hook) {
+            onCancel = hook;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + age() + "ms " + command;
+        }
+    }
+
+    /**
+     * register records a command which has just started.
+     *
+     * @param process the process running the command
+     * @param command description of the command, normally its command line
+     * @return the Entry to hand back to unregister
+     */
+    public static Entry register(Process process, String command) {
+        Entry entry = new Entry(ids.incrementAndGet(), command, process);
+        running.put(entry.id, entry);
+        return entry;
+    }
+
+    /**
+     * unregister forgets a command which has finished.
+     *
+     * @param entry as returned by register, may be null
+     */
+    public static void unregister(Entry entry) {
+        if (entry != null) {
+            running.remove(entry.id, entry);
+        }
+    }
+
+    /**
+     * running lists the commands currently running.
+     *
+     * @return running commands, oldest first
+     */
+    public static ArrayList<Entry> running() {
+        ArrayList<Entry> entries = new ArrayList<>(running.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * cancelAll cancels every running command. The threads waiting on them
+     * see the command as timed out.
+     *
+     * @return number of commands cancelled
+     */
+    public static int cancelAll() {
+        int count = 0;
+        for (Entry entry : running.values()) {
+            entry.cancel();
+            count++;
+        }
+        if (count > 0) {
+            Lib.log.appendLog("ProcessRegistry() cancelled " + count + " running command(s)");
+        }
+        return count;
+    }
+}
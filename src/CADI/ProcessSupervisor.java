@@ -0,0 +1,419 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * ProcessSupervisor starts the processes run by Target.HostSystem.Shell and
+ * enforces their deadlines.
+ * <p>
+ * A supervised process is registered with the ProcessRegistry and the
+ * calling thread's Cancellation for as long as it runs. Its deadline is a
+ * task on one shared reaper thread rather than a thread per command; the
+ * caller blocks in the operating system on the process's output and exit,
+ * so nothing spins while a command runs. When the deadline passes, or the
+ * command is cancelled, the whole process tree is destroyed: killing only
+ * cmd.exe would leave the installer it started running and holding the
+ * output pipe open.
+ * <p>
+ * Process trees are found through java.lang.ProcessHandle, which needs Java
+ * 9; on Java 8 only the process itself is destroyed. Its children may then
+ * keep the output pipe open, so there the output is read on a pool thread
+ * and abandoned to them once the process was killed.
+ */
+public final class ProcessSupervisor {
+
+    private static final ScheduledThreadPoolExecutor reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CADI process reaper");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final Method toHandle;
+    private static final Method descendants;
+    private static final Method destroyForcibly;
+    private static final AtomicInteger supervised = new AtomicInteger();
+
+    /**
+     * ORPHAN_GRACE_MILLIS is how long output is still read after a process
+     * was killed, when its children cannot be destroyed with it.
+     */
+    static final long ORPHAN_GRACE_MILLIS = 500;
+
+    static {
+        reaper.setRemoveOnCancelPolicy(true);
+        Method handle = null;
+        Method children = null;
+        Method destroy = null;
+        try {
+            handle = Process.class.getMethod("toHandle");
+            Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+            children = processHandle.getMethod("descendants");
+            destroy = processHandle.getMethod("destroyForcibly");
+        } catch (NoSuchMethodException | ClassNotFoundException ex) {
+            handle = null; //Java 8, destroy the process alone
+        }
+        toHandle = handle;
+        descendants = children;
+        destroyForcibly = destroy;
+    }
+
+    private ProcessSupervisor() {
+    }
+
+    /**
+     * Supervised is one process started by the supervisor.
+     */
+    public static final class Supervised {
+
+        private final Process process;
+        private final String command;
+        private final ProcessRegistry.Entry registered;
+        private final Target.HostSystem.Shell.Cancellation cancellation;
+        private final AtomicReference<String> killed = new AtomicReference<>();
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private ScheduledFuture<?> deadline;
+        private boolean finished;
+        private volatile long lastActivity = System.nanoTime();
+
+        private Supervised(Process process, String command) {
+            this.process = process;
+            this.command = command;
+            this.registered = ProcessRegistry.register(process, command);
+            this.registered.onCancel(new Runnable() {
+                @Override
+                public void run() {
+                    stopped.countDown();
+                }
+            });
+            this.cancellation = Target.HostSystem.Shell.Cancellation.current();
+            if (cancellation != null) {
+                cancellation.register(process);
+            }
+            supervised.incrementAndGet();
+        }
+
+        /**
+         * @return the process, for its streams
+         */
+        public Process process() {
+            return process;
+        }
+
+        /**
+         * restartDeadline replaces the deadline, counting from now.
+         *
+         * @param timeoutMillis milliseconds the process may still run, 0 or
+         * less for no deadline
+         */
+        public synchronized void restartDeadline(final long timeoutMillis) {
+            ScheduledFuture<?> previous = deadline;
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            if (timeoutMillis <= 0 || finished || killed.get() != null) {
+                deadline = null;
+                return;
+            }
+            deadline = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (kill("timed out after " + timeoutMillis + "ms")) {
+                        Lib.log.appendLog("TimeOut on " + command + " after " + timeoutMillis + "ms. Returning what was received.");
+                    }
+                }
+            }, timeoutMillis);
+        }
+
+        /**
+         * watchInactivity replaces the deadline with one which passes only
+         * once touch has not been called for timeoutMillis. Touching costs
+         * a volatile write; the deadline task re-arms itself on the reaper
+         * when it finds the process was touched meanwhile.
+         *
+         * @param timeoutMillis milliseconds the process may run without
+         * being touched
+         */
+        public synchronized void watchInactivity(final long timeoutMillis) {
+            touch();
+            ScheduledFuture<?> previous = deadline;
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            if (timeoutMillis <= 0 || finished || killed.get() != null) {
+                deadline = null;
+                return;
+            }
+            deadline = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+                    if (idle < timeoutMillis) {
+                        synchronized (Supervised.this) {
+                            if (!finished && killed.get() == null) {
+                                deadline = schedule(this, timeoutMillis - idle);
+                            }
+                        }
+                        return;
+                    }
+                    if (kill("no progress for " + timeoutMillis + "ms")) {
+                        Lib.log.appendLog("Watchdog Triggered! " + command + " made no progress for " + timeoutMillis + "ms.");
+                    }
+                }
+            }, timeoutMillis);
+        }
+
+        /**
+         * touch records progress, postponing an inactivity deadline.
+         */
+        public void touch() {
+            lastActivity = System.nanoTime();
+        }
+
+        /**
+         * kill destroys the process tree, unless the process was already
+         * killed.
+         *
+         * @param reason why, reported by getKillReason
+         * @return true if this call killed the process
+         */
+        public boolean kill(String reason) {
+            if (!killed.compareAndSet(null, reason)) {
+                return false;
+            }
+            destroyTree(process);
+            stopped.countDown();
+            return true;
+        }
+
+        /**
+         * @return why the process was killed by the supervisor, or null
+         */
+        public String getKillReason() {
+            return killed.get();
+        }
+
+        /**
+         * @return true if the process was killed, by its deadline, by
+         * cancellation of its thread's operation or through the
+         * ProcessRegistry
+         */
+        public boolean wasKilled() {
+            return killed.get() != null || registered.isCancelled() || (cancellation != null && cancellation.isCancelled());
+        }
+
+        /**
+         * drain reads the process's output to its end into output on the
+         * calling thread.
+         * <p>
+         * Where process trees cannot be destroyed, the stream is read on an
+         * OutputPipeline pool thread while the caller waits for it to end or
+         * for the process to be killed, by its deadline or by cancellation.
+         * After a kill the rest of the output is read for at most
+         * ORPHAN_GRACE_MILLIS; if surviving children still hold the pipe
+         * open, output ends there and the stream is left to them.
+         *
+         * @param stream the process's output
+         * @param charset charset the output is written in
+         * @param output receives the output; its end is called before drain
+         * returns normally
+         * @throws IOException if the stream cannot be read
+         */
+        void drain(InputStream stream, Charset charset, OutputPipeline.Output output) throws IOException {
+            if (canDestroyTrees()) {
+                OutputPipeline.drain(stream, charset, output);
+                return;
+            }
+            Runnable stop = new Runnable() {
+                @Override
+                public void run() {
+                    stopped.countDown();
+                }
+            };
+            if (cancellation != null) {
+                cancellation.onCancel(stop);
+            }
+            OutputPipeline.Detachable detachable = new OutputPipeline.Detachable(output);
+            Future<?> reading = OutputPipeline.drainInBackground(stream, charset, detachable, stop);
+            try {
+                stopped.await();
+                if (reading.isDone()) {
+                    reading.get();
+                } else {
+                    reading.get(ORPHAN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                kill("interrupted");
+                detachable.detach();
+            } catch (TimeoutException ex) {
+                Lib.log.appendLog("ProcessSupervisor() child processes of " + command + " keep its output open, abandoning it");
+                detachable.detach();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            } finally {
+                if (cancellation != null) {
+                    cancellation.removeOnCancel(stop);
+                }
+            }
+        }
+
+        /**
+         * waitFor blocks until the process has exited, then stops supervising
+         * it. An interrupted wait kills the process and returns at once.
+         *
+         * @return true if the process exited by itself
+         */
+        public boolean waitFor() {
+            try {
+                process.waitFor();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                kill("interrupted");
+            }
+            finish();
+            return !wasKilled();
+        }
+
+        /**
+         * release stops supervising the process for a caller which is done
+         * with it. A process not yet waited for, because its output could not
+         * be read, is killed first.
+         */
+        public void release() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+            }
+            kill("released before it exited");
+            waitFor();
+        }
+
+        private synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            ScheduledFuture<?> current = deadline;
+            if (current != null) {
+                current.cancel(false);
+            }
+            if (cancellation != null) {
+                cancellation.unregister(process);
+            }
+            ProcessRegistry.unregister(registered);
+            supervised.decrementAndGet();
+        }
+    }
+
+    /**
+     * start launches a process under supervision. The caller must call
+     * waitFor on the result, normally after reading its output.
+     *
+     * @param builder the process to start
+     * @param command description of the command for logs and the
+     * ProcessRegistry
+     * @param timeoutMillis milliseconds after which the process tree is
+     * destroyed, 0 or less for no deadline
+     * @return the Supervised process
+     * @throws IOException if the process cannot be started
+     */
+    public static Supervised start(ProcessBuilder builder, String command, long timeoutMillis) throws IOException {
+        Supervised process = new Supervised(builder.start(), command);
+        process.restartDeadline(timeoutMillis);
+        return process;
+    }
+
+    /**
+     * schedule runs a task on the reaper thread after a delay. Tasks must be
+     * short; they share the thread with every deadline.
+     *
+     * @param task task to run
+     * @param delayMillis delay in milliseconds
+     * @return the scheduled task, to cancel it
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return reaper.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * destroyTree forcibly destroys a process and every process it started.
+     * The descendants are listed before the process is destroyed, as they
+     * cannot be found from it afterwards.
+     *
+     * @param process process to destroy
+     */
+    public static void destroyTree(Process process) {
+        Object[] children = new Object[0];
+        if (toHandle != null) {
+            try {
+                children = ((Stream<?>) descendants.invoke(toHandle.invoke(process))).toArray();
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+                Lib.log.appendLog("ProcessSupervisor() cannot list child processes: " + ex.getLocalizedMessage());
+            }
+        }
+        process.destroyForcibly();
+        for (Object child : children) {
+            try {
+                destroyForcibly.invoke(child);
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+                Lib.log.appendLog("ProcessSupervisor() cannot destroy child process: " + ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return number of processes currently supervised
+     */
+    public static int getSupervisedCount() {
+        return supervised.get();
+    }
+
+    /**
+     * @return true if destroyTree reaches child processes on this JVM
+     */
+    public static boolean canDestroyTrees() {
+        return toHandle != null;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ProgressTracker counts the bytes written by one extraction and hands
+ * Unzip.Progress snapshots to an Unzip.ProgressListener.
+ * <p>
+ * The copy loops only add to counters; a snapshot is taken at most once per
+ * INTERVAL_MILLIS, and is delivered on a shared background thread. Snapshots
+ * taken while the listener is still busy replace each other, so a slow
+ * listener sees fewer updates but never slows the extraction. The final
+ * snapshot of an extraction is always delivered, last, by finish: callers
+ * mark a successful extraction complete, then call finish from a finally
+ * block, so an extraction which threw ends with a failed snapshot.
+ */
+final class ProgressTracker {
+
+    static final long INTERVAL_MILLIS = 100;
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+
+    private static final ThreadPoolExecutor delivery = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CADI unzip progress");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        delivery.allowCoreThreadTimeOut(true);
+    }
+
+    private final Unzip.ProgressListener listener;
+    private final String archive;
+    private final long totalBytes;
+    private final long started = System.nanoTime();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lastSnapshot = new AtomicLong(started);
+    private final AtomicReference<Unzip.Progress> pending = new AtomicReference<>();
+    private volatile boolean complete;
+    private boolean finished;
+
+    /**
+     * @param listener receives the snapshots, may be null
+     * @param archive name of the archive being extracted
+     * @param totalBytes bytes the extraction will write, -1 if unknown
+     */
+    private ProgressTracker(Unzip.ProgressListener listener, String archive, long totalBytes) {
+        this.listener = listener;
+        this.archive = archive;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * start creates a tracker for one extraction. Without a listener the
+     * tracker does nothing.
+     *
+     * @return the tracker
+     */
+    static ProgressTracker start(Unzip.ProgressListener listener, String archive, long totalBytes) {
+        return new ProgressTracker(listener, archive, totalBytes);
+    }
+
+    /**
+     * entry starts tracking one entry. An Entry is used by one thread, but
+     * entries of one tracker may be written by several threads at once.
+     *
+     * @param name entry name
+     * @param size uncompressed size, -1 if unknown
+     * @return the Entry to report its bytes to
+     */
+    Entry entry(String name, long size) {
+        return new Entry(name, size);
+    }
+
+    /**
+     * skip counts an entry which did not need writing as done.
+     */
+    void skip(long size) {
+        if (size > 0) {
+            bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * complete marks the extraction as successful.
+     */
+    void complete() {
+        complete = true;
+    }
+
+    /**
+     * finish delivers the final snapshot, failed unless complete was called.
+     * Later calls do nothing.
+     */
+    synchronized void finish() {
+        if (listener == null || finished) {
+            return;
+        }
+        finished = true;
+        publish(new Unzip.Progress(archive, null, 0, 0, bytes.get(), totalBytes, System.nanoTime() - started, true, !complete));
+    }
+
+    final class Entry {
+
+        private final String name;
+        private final long size;
+        private long written;
+
+        private Entry(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * advance counts bytes just written. Outside the rare snapshot this
+         * is an addition and a clock read.
+         */
+        void advance(int count) {
+            written += count;
+            if (listener == null) {
+                return;
+            }
+            long total = bytes.addAndGet(count);
+            long now = System.nanoTime();
+            long last = lastSnapshot.get();
+            if (now - last >= INTERVAL_NANOS && lastSnapshot.compareAndSet(last, now)) {
+                publish(new Unzip.Progress(archive, name, written, size, total, totalBytes, now - started, false, false));
+            }
+        }
+    }
+
+    private void publish(Unzip.Progress progress) {
+        if (pending.getAndSet(progress) != null) {
+            return; //a delivery is already queued and will pick this one up
+        }
+        delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                Unzip.Progress latest = pending.getAndSet(null);
+                if (latest == null) {
+                    return;
+                }
+                try {
+                    listener.progress(latest);
+                } catch (RuntimeException ex) {
+                    Lib.log.appendLog("ProgressListener() " + ex.getLocalizedMessage());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import CADI.Target.HostSystem.Shell;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryCache holds the output of read-only installer queries (find, findall,
+ * dp_enum) for a short time, shared by every Console in the JVM.
+ * <p>
+ * Identical queries issued while one is already running wait for that
+ * execution instead of launching their own process. Any mutating command
+ * (update, remove, dp_delete, rescan...) invalidates the whole cache; a query
+ * that was in flight when the cache was invalidated hands its result to its
+ * waiters but is not kept.
+ * <p>
+ * A shared execution runs under its own Shell.Cancellation. A waiter whose
+ * operation is cancelled only detaches from it; the installer process is
+ * destroyed once every waiter able to cancel has detached, and never while
+ * another caller still waits for the result.
+ */
+public final class QueryCache {
+
+    /**
+     * DEFAULT_TTL is the time in milliseconds a query result stays valid.
+     */
+    public static final long DEFAULT_TTL = 5000;
+
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile long ttl = DEFAULT_TTL;
+
+    private QueryCache() {
+    }
+
+    private static final class Entry {
+
+        final long generation;
+        final FutureTask<String> task;
+        final Shell.Cancellation cancellation = new Shell.Cancellation();
+        volatile long completedAt;
+        private int waiters;
+        private boolean abandoned;
+
+        Entry(long generation, FutureTask<String> task) {
+            this.generation = generation;
+            this.task = task;
+        }
+
+        /**
+         * attach adds a waiter.
+         *
+         * @return false if every earlier waiter detached and the execution
+         * has been cancelled
+         */
+        synchronized boolean attach() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * detach removes a cancelled waiter, and cancels the execution if it
+         * was the last one.
+         */
+        void detach() {
+            synchronized (this) {
+                if (--waiters > 0 || task.isDone()) {
+                    return;
+                }
+                abandoned = true;
+            }
+            cancellation.cancel();
+        }
+
+        boolean isExpired(long now) {
+            return completedAt != 0 && now - completedAt >= ttl;
+        }
+    }
+
+    /**
+     * get returns the cached output of a query, running it if there is no
+     * fresh result and no identical query in flight.
+     *
+     * @param key the full installer command line, e.g. "findall USB*", or a
+     * key naming a result derived from one
+     * @param query runs the installer; a null or "Timeout!!!" result is
+     * handed to the current waiters but never cached
+     * @return installer output
+     */
+    public static String get(String key, final Callable<String> query) {
+        Shell.Cancellation caller = Shell.Cancellation.current();
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(key, entry);
+                entry = null;
+            }
+            boolean owner = false;
+            if (entry == null) {
+                Entry created = new Entry(generation.get(), new FutureTask<>(query));
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    entry = created;
+                    owner = true;
+                }
+            }
+            if (!entry.attach()) {
+                entries.remove(key, entry);
+                continue;
+            }
+            final Entry attached = entry;
+            Runnable detach = new Runnable() {
+                @Override
+                public void run() {
+                    attached.detach();
+                }
+            };
+            if (caller != null) {
+                caller.onCancel(detach);
+            }
+            try {
+                if (owner) {
+                    misses.incrementAndGet();
+                    Shell.Cancellation previous = Shell.Cancellation.bind(entry.cancellation);
+                    try {
+                        entry.task.run();
+                    } finally {
+                        Shell.Cancellation.bind(previous);
+                    }
+                    entry.completedAt = System.currentTimeMillis();
+                } else {
+                    hits.incrementAndGet();
+                }
+                String result = entry.task.get();
+                if (owner && (ttl == 0 || result == null || result.startsWith("Timeout!!!") || entry.generation != generation.get())) {
+                    entries.remove(key, entry);
+                }
+                return result;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                entries.remove(key, entry);
+                if (owner) {
+                    Lib.log.appendLog("QueryCache() " + key + " failed: " + ex.getCause());
+                    return null;
+                }
+                //the shared execution failed, try again with our own
+            } finally {
+                if (caller != null) {
+                    caller.removeOnCancel(detach);
+                }
+            }
+        }
+    }
+
+    /**
+     * invalidate drops every cached result. Queries in flight complete for
+     * their current waiters but are not cached.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * setTtl sets how long query results stay valid.
+     *
+     * @param milliseconds time to live; 0 disables caching but keeps
+     * deduplication of concurrent identical queries
+     */
+    public static void setTtl(long milliseconds) {
+        ttl = Math.max(0, milliseconds);
+    }
+
+    /**
+     * @return time in milliseconds query results stay valid
+     */
+    public static long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return number of queries served from the cache or a shared execution
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of queries which launched the installer
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+}
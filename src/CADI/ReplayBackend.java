@@ -0,0 +1,168 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ReplayBackend serves installer commands from a recorded Transcript. Each
+ * command line is answered with the outputs recorded for it, in recorded
+ * order, starting over once they are used up; commands never recorded fail
+ * the way the installer reports a failure. Commands are matched normalized,
+ * so recordings made with another driver package folder still apply.
+ * <p>
+ * Replays run as fast as possible or at recorded speed, in which case each
+ * command takes as long as it did when it was recorded.
+ */
+public class ReplayBackend implements DriverBackend {
+
+    public enum Speed {
+
+        RECORDED, AS_FAST_AS_POSSIBLE
+    }
+
+    private final HashMap<String, Responses> responses = new HashMap<>();
+    private final Speed speed;
+
+    private static final class Responses {
+
+        final ArrayList<Transcript.Entry> entries = new ArrayList<>();
+        int next;
+
+        synchronized Transcript.Entry next() {
+            Transcript.Entry entry = entries.get(next);
+            next = (next + 1) % entries.size();
+            return entry;
+        }
+    }
+
+    /**
+     * @param transcript transcript file written during a recording
+     * @param speed replay speed
+     * @throws IOException if the transcript cannot be read
+     */
+    public ReplayBackend(File transcript, Speed speed) throws IOException {
+        this(Transcript.read(transcript), speed);
+    }
+
+    /**
+     * @param entries recorded commands
+     * @param speed replay speed
+     */
+    public ReplayBackend(List<Transcript.Entry> entries, Speed speed) {
+        this.speed = speed;
+        for (Transcript.Entry entry : entries) {
+            String key = key(entry.command, entry.elevated);
+            Responses r = responses.get(key);
+            if (r == null) {
+                r = new Responses();
+                responses.put(key, r);
+            }
+            r.entries.add(entry);
+        }
+    }
+
+    private static String key(String cmd, boolean elevated) {
+        return (elevated ? "E " : "U ") + Transcript.normalize(cmd);
+    }
+
+    /**
+     * next finds the next recorded answer to a command, preferring one
+     * recorded with the same elevation.
+     */
+    private Transcript.Entry next(String cmd, boolean elevated) {
+        Responses r = responses.get(key(cmd, elevated));
+        if (r == null) {
+            r = responses.get(key(cmd, !elevated));
+        }
+        return r == null ? null : r.next();
+    }
+
+    @Override
+    public String execute(String cmd, boolean elevated, int timeout) {
+        Transcript.Entry entry = next(cmd, elevated);
+        if (entry == null) {
+            Lib.log.appendLog("ReplayBackend() no recording of " + cmd);
+            return ElevationBroker.verbOf(cmd) + " failed.\n";
+        }
+        if (!delay(entry, timeout)) {
+            return "Timeout!!! ";
+        }
+        return entry.output;
+    }
+
+    @Override
+    public String[] executeChain(String[] cmds, boolean elevated, int timeout) {
+        String[] retval = new String[cmds.length];
+        for (int i = 0; i < cmds.length; i++) {
+            retval[i] = execute(cmds[i], elevated, timeout);
+        }
+        return retval;
+    }
+
+    @Override
+    public boolean stream(String cmd, int timeout, Target.HostSystem.Shell.LineListener listener) {
+        Transcript.Entry entry = next(cmd, false);
+        if (entry == null) {
+            Lib.log.appendLog("ReplayBackend() no recording of " + cmd);
+            return false;
+        }
+        if (!delay(entry, timeout)) {
+            return false;
+        }
+        String output = entry.output.startsWith("Timeout!!! ") ? entry.output.substring(11) : entry.output;
+        for (String line : output.split("\n")) {
+            listener.line(line);
+        }
+        return entry.completed;
+    }
+
+    /**
+     * delay waits as long as the recorded command took, at recorded speed.
+     *
+     * @return false if the wait was cancelled or exceeded the timeout
+     */
+    private boolean delay(Transcript.Entry entry, int timeout) {
+        if (speed == Speed.AS_FAST_AS_POSSIBLE) {
+            return true;
+        }
+        long duration = entry.durationNanos / 1000000;
+        Target.HostSystem.Shell.Cancellation cancellation = Target.HostSystem.Shell.Cancellation.current();
+        long deadline = System.currentTimeMillis() + Math.min(duration, timeout);
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (cancellation != null && cancellation.isCancelled()) {
+                    return false;
+                }
+                Thread.sleep(Math.min(remaining, 50));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return duration <= timeout;
+    }
+}
@@ -0,0 +1,656 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimulatedBackend answers installer commands from an in-memory device tree,
+ * so Console's parsing, caching and install orchestration can run and be
+ * load tested without Windows or the installer executables.
+ * <p>
+ * The tree holds devices (connected or not, composite parents and their
+ * MI_xx interfaces) and third party driver packages. Commands change it the
+ * way the installer would: update stages the INF as an oemN.inf package and
+ * binds matching devices to it, remove drops devices, dp_delete drops a
+ * package and unbinds its devices. Every command can be given a random
+ * latency, failure rate and timeout rate, and mutating commands can be made
+ * to fail unless run elevated.
+ */
+public class SimulatedBackend implements DriverBackend {
+
+    public static final String CADI_PROVIDER = "libusbK";
+    public static final String CADI_CLASS = "libusbK USB Devices";
+    public static final String CADI_DESCRIPTION = "CASUAL's Android Device";
+
+    /**
+     * USB_TEMPLATES are the USB devices populate() draws from: VID, PID,
+     * description and the number of interfaces (0 for a simple device).
+     */
+    private static final String[][] USB_TEMPLATES = new String[][]{
+        {"04E8", "685D", "SAMSUNG Mobile USB Composite Device", "2"},
+        {"04E8", "6860", "SAMSUNG Mobile USB Modem", "3"},
+        {"04E8", "685D", "Samsung Android Device", "0"},
+        {"18D1", "4EE0", "Android Bootloader Interface", "0"},
+        {"18D1", "D002", "Android Composite ADB Interface", "2"},
+        {"0BB4", "0C01", "HTC Android Phone", "0"},
+        {"22B8", "2E76", "Motorola ADB Interface", "0"},
+        {"0B05", "4DAF", "ASUS Android Composite ADB Interface", "2"},
+        {"8087", "0024", "Generic USB Hub", "0"},
+        {"046D", "C52B", "USB Composite Device", "3"}
+    };
+
+    private static final String[][] OTHER_TEMPLATES = new String[][]{
+        {"ACPI\\PNP0303", "Standard PS/2 Keyboard"},
+        {"PCI\\VEN_8086&DEV_1C26&SUBSYS_05311028&REV_05", "Intel(R) 6 Series/C200 Series Chipset Family USB Enhanced Host Controller - 1C26"},
+        {"USB\\ROOT_HUB20", "USB Root Hub"},
+        {"ROOT\\LEGACY_BEEP", "Beep"}
+    };
+
+    private static final String[][] PACKAGE_TEMPLATES = new String[][]{
+        {"Intel", "System devices"},
+        {"Samsung Electronics Co., Ltd.", "Modem"},
+        {"Google, Inc.", "Android Device"},
+        {"Realtek", "Sound, video and game controllers"}
+    };
+
+    /**
+     * Device is a node of the simulated device tree.
+     */
+    private static final class Device {
+
+        final String instanceId;
+        final String[] hardwareIds;
+        final String description;
+        boolean present;
+        String driverPackage;
+        String driverDescription;
+
+        Device(String instanceId, String[] hardwareIds, String description, boolean present) {
+            this.instanceId = instanceId;
+            this.hardwareIds = hardwareIds;
+            this.description = description;
+            this.present = present;
+        }
+
+        String currentDescription() {
+            return driverDescription != null ? driverDescription : description;
+        }
+    }
+
+    private static final class DriverPackage {
+
+        final String provider;
+        final String deviceClass;
+        final String source;
+
+        DriverPackage(String provider, String deviceClass, String source) {
+            this.provider = provider;
+            this.deviceClass = deviceClass;
+            this.source = source;
+        }
+    }
+
+    private final LinkedHashMap<String, Device> devices = new LinkedHashMap<>();
+    private final TreeMap<Integer, DriverPackage> packages = new TreeMap<>();
+    private final Random random;
+    private final AtomicLong commands = new AtomicLong();
+    private int nextPackage = 0;
+    private volatile long minLatency = 0;
+    private volatile long maxLatency = 0;
+    private volatile double failureRate = 0;
+    private volatile double timeoutRate = 0;
+    private volatile boolean elevationRequired = false;
+
+    public SimulatedBackend() {
+        this(0);
+    }
+
+    /**
+     * @param seed seed for generated trees and injected latency and failures
+     */
+    public SimulatedBackend(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * setLatency makes every command take a random time between min and max
+     * milliseconds.
+     *
+     * @param min shortest latency in milliseconds
+     * @param max longest latency in milliseconds
+     * @return this backend
+     */
+    public SimulatedBackend setLatency(long min, long max) {
+        this.minLatency = Math.max(0, min);
+        this.maxLatency = Math.max(this.minLatency, max);
+        return this;
+    }
+
+    /**
+     * setFailureRate makes the given fraction of commands report "failed"
+     * without changing the tree.
+     *
+     * @param rate between 0 and 1
+     * @return this backend
+     */
+    public SimulatedBackend setFailureRate(double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+
+    /**
+     * setTimeoutRate makes the given fraction of commands time out.
+     *
+     * @param rate between 0 and 1
+     * @return this backend
+     */
+    public SimulatedBackend setTimeoutRate(double rate) {
+        this.timeoutRate = rate;
+        return this;
+    }
+
+    /**
+     * setElevationRequired makes update, remove, dp_delete and rescan fail
+     * unless run elevated, like the installer on a limited account.
+     *
+     * @param required true to require elevation
+     * @return this backend
+     */
+    public SimulatedBackend setElevationRequired(boolean required) {
+        this.elevationRequired = required;
+        return this;
+    }
+
+    /**
+     * @return number of commands executed so far
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    /**
+     * addDevice adds a device to the tree. Its hardware IDs are derived from
+     * the instance ID, e.g. USB\VID_04E8&amp;PID_685D\0123 has the hardware
+     * IDs USB\VID_04E8&amp;PID_685D&amp;REV_0100 and USB\VID_04E8&amp;PID_685D.
+     *
+     * @param instanceId device instance ID
+     * @param description device description
+     * @param present true if the device is connected
+     * @return this backend
+     */
+    public synchronized SimulatedBackend addDevice(String instanceId, String description, boolean present) {
+        int slash = instanceId.lastIndexOf('\\');
+        String hardwareId = slash > 0 ? instanceId.substring(0, slash) : instanceId;
+        String[] hardwareIds;
+        if (hardwareId.toUpperCase(Locale.ENGLISH).startsWith("USB\\VID_")) {
+            int mi = hardwareId.toUpperCase(Locale.ENGLISH).indexOf("&MI_");
+            String revision = mi < 0 ? hardwareId + "&REV_0100" : hardwareId.substring(0, mi) + "&REV_0100" + hardwareId.substring(mi);
+            hardwareIds = new String[]{revision, hardwareId};
+        } else {
+            hardwareIds = new String[]{hardwareId};
+        }
+        devices.put(instanceId.toUpperCase(Locale.ENGLISH), new Device(instanceId, hardwareIds, description, present));
+        return this;
+    }
+
+    /**
+     * addDriverPackage adds a third party driver package to the driver
+     * store.
+     *
+     * @param provider package provider
+     * @param deviceClass device setup class
+     * @return the package's published name, e.g. "oem7.inf"
+     */
+    public synchronized String addDriverPackage(String provider, String deviceClass) {
+        packages.put(nextPackage, new DriverPackage(provider, deviceClass, null));
+        return "oem" + nextPackage++ + ".inf";
+    }
+
+    /**
+     * connect marks a device as connected.
+     *
+     * @param instanceId device instance ID
+     * @return false if there is no such device
+     */
+    public synchronized boolean connect(String instanceId) {
+        return setPresent(instanceId, true);
+    }
+
+    /**
+     * disconnect marks a device as no longer connected. It stays in the tree
+     * as an orphan until removed.
+     *
+     * @param instanceId device instance ID
+     * @return false if there is no such device
+     */
+    public synchronized boolean disconnect(String instanceId) {
+        return setPresent(instanceId, false);
+    }
+
+    private boolean setPresent(String instanceId, boolean present) {
+        Device device = devices.get(instanceId.toUpperCase(Locale.ENGLISH));
+        if (device == null) {
+            return false;
+        }
+        device.present = present;
+        return true;
+    }
+
+    /**
+     * @return number of devices in the tree, connected or not
+     */
+    public synchronized int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * populate grows the tree by roughly the given number of devices:
+     * phones (many of them composite), hubs and non-USB devices, about one in
+     * ten left disconnected, some of those still bound to a CADI package from
+     * an earlier session, plus a few third party driver packages.
+     *
+     * @param count number of devices to add
+     * @return this backend
+     */
+    public synchronized SimulatedBackend populate(int count) {
+        String cadiPackage = null;
+        int added = 0;
+        while (added < count) {
+            boolean present = random.nextInt(10) != 0;
+            if (random.nextInt(4) == 0) {
+                String[] other = OTHER_TEMPLATES[random.nextInt(OTHER_TEMPLATES.length)];
+                addDevice(other[0] + "\\" + (3 + random.nextInt(2)) + "&" + hex(random.nextInt()) + "&0", other[1], present);
+                added++;
+                continue;
+            }
+            String[] usb = USB_TEMPLATES[random.nextInt(USB_TEMPLATES.length)];
+            String id = "USB\\VID_" + usb[0] + "&PID_" + usb[1];
+            String serial = hex(random.nextInt()) + hex(random.nextInt());
+            addDevice(id + "\\" + serial, usb[2], present);
+            added++;
+            int interfaces = Integer.parseInt(usb[3]);
+            for (int i = 0; i < interfaces && added < count; i++) {
+                addDevice(id + "&MI_0" + i + "\\" + (6 + random.nextInt(2)) + "&" + hex(random.nextInt()) + "&0&000" + i, usb[2] + " Interface " + i, present);
+                added++;
+            }
+            if (!present && random.nextInt(3) == 0) {
+                if (cadiPackage == null) {
+                    cadiPackage = "oem" + nextPackage + ".inf";
+                    packages.put(nextPackage++, new DriverPackage(CADI_PROVIDER, CADI_CLASS, "cadi.inf"));
+                }
+                Device orphan = devices.get((id + "\\" + serial).toUpperCase(Locale.ENGLISH));
+                orphan.driverPackage = cadiPackage;
+                orphan.driverDescription = CADI_DESCRIPTION;
+            }
+        }
+        for (int i = 0; i < 3 + count / 50; i++) {
+            String[] template = PACKAGE_TEMPLATES[random.nextInt(PACKAGE_TEMPLATES.length)];
+            addDriverPackage(template[0], template[1]);
+        }
+        return this;
+    }
+
+    private static String hex(int value) {
+        return Integer.toHexString(value).toUpperCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public String execute(String cmd, boolean elevated, int timeout) {
+        commands.incrementAndGet();
+        if (!delay(timeout) || random.nextDouble() < timeoutRate) {
+            return "Timeout!!! ";
+        }
+        ArrayList<String> args = tokenize(cmd);
+        boolean force = false;
+        while (!args.isEmpty() && args.get(0).startsWith("-")) {
+            force |= args.remove(0).equalsIgnoreCase("-f");
+        }
+        String verb = args.isEmpty() ? "" : args.remove(0).toLowerCase(Locale.ENGLISH);
+        boolean mutating = verb.equals("update") || verb.equals("remove") || verb.equals("dp_delete") || verb.equals("rescan");
+        if ((mutating && elevationRequired && !elevated) || random.nextDouble() < failureRate) {
+            return verb + " failed.\n";
+        }
+        String[] ids = args.toArray(new String[args.size()]);
+        switch (verb) {
+            case "find":
+                return find(ids);
+            case "findall":
+                return findall(ids);
+            case "update":
+                return ids.length == 2 ? update(ids[0], ids[1]) : "update failed.\n";
+            case "remove":
+                return remove(ids);
+            case "dp_delete":
+                return ids.length == 1 ? dpDelete(ids[0], force) : "dp_delete failed.\n";
+            case "dp_enum":
+                return dpEnum();
+            case "rescan":
+                return rescan();
+            default:
+                return verb + " failed.\n";
+        }
+    }
+
+    @Override
+    public String[] executeChain(String[] cmds, boolean elevated, int timeout) {
+        String[] retval = new String[cmds.length];
+        for (int i = 0; i < cmds.length; i++) {
+            retval[i] = execute(cmds[i], elevated, timeout);
+        }
+        return retval;
+    }
+
+    @Override
+    public boolean stream(String cmd, int timeout, Target.HostSystem.Shell.LineListener listener) {
+        String output = execute(cmd, false, timeout);
+        if (output.startsWith("Timeout!!!")) {
+            return false;
+        }
+        for (String line : output.split("\n")) {
+            listener.line(line);
+        }
+        return true;
+    }
+
+    /**
+     * delay waits out the injected latency.
+     *
+     * @return false if the wait was cancelled or exceeded the timeout
+     */
+    private boolean delay(int timeout) {
+        long latency = minLatency;
+        if (maxLatency > minLatency) {
+            latency += (long) (random.nextDouble() * (maxLatency - minLatency));
+        }
+        if (latency == 0) {
+            return true;
+        }
+        Target.HostSystem.Shell.Cancellation cancellation = Target.HostSystem.Shell.Cancellation.current();
+        long deadline = System.currentTimeMillis() + Math.min(latency, timeout);
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (cancellation != null && cancellation.isCancelled()) {
+                    return false;
+                }
+                Thread.sleep(Math.min(remaining, 50));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return latency <= timeout;
+    }
+
+    /**
+     * tokenize splits a command line on spaces outside double quotes and
+     * strips the quotes.
+     */
+    private static ArrayList<String> tokenize(String cmd) {
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < cmd.length(); i++) {
+            char c = cmd.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (c == ' ' && !quoted) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * matches applies an installer ID pattern: * matches any run of
+     * characters, case is ignored, and an @ prefix matches the instance ID
+     * instead of the hardware IDs.
+     */
+    private static boolean matches(Device device, String pattern) {
+        if (pattern.startsWith("@")) {
+            return glob(pattern.substring(1), device.instanceId);
+        }
+        for (String hardwareId : device.hardwareIds) {
+            if (glob(pattern, hardwareId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean glob(String pattern, String text) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int mark = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && pattern.charAt(p) != '*'
+                    && Character.toUpperCase(pattern.charAt(p)) == Character.toUpperCase(text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private ArrayList<Device> select(String[] ids, boolean onlyPresent) {
+        ArrayList<Device> selected = new ArrayList<>();
+        for (Device device : devices.values()) {
+            if (onlyPresent && !device.present) {
+                continue;
+            }
+            for (String id : ids) {
+                if (matches(device, id)) {
+                    selected.add(device);
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private static String listing(ArrayList<Device> selected) {
+        StringBuilder sb = new StringBuilder(selected.size() * 96 + 32);
+        for (Device device : selected) {
+            sb.append(device.instanceId);
+            for (int pad = device.instanceId.length(); pad < 60; pad++) {
+                sb.append(' ');
+            }
+            sb.append(": ").append(device.currentDescription()).append('\n');
+        }
+        if (selected.isEmpty()) {
+            sb.append("No matching devices found.\n");
+        } else {
+            sb.append(selected.size()).append(" matching device(s) found.\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * find lists the connected devices matching any of the IDs.
+     *
+     * @param ids ID patterns
+     * @return installer output
+     */
+    public synchronized String find(String... ids) {
+        return listing(select(ids, true));
+    }
+
+    /**
+     * findall lists every device in the tree matching any of the IDs,
+     * connected or not.
+     *
+     * @param ids ID patterns
+     * @return installer output
+     */
+    public synchronized String findall(String... ids) {
+        return listing(select(ids, false));
+    }
+
+    /**
+     * update stages the INF in the driver store, if it is not there yet, and
+     * binds every connected device with the hardware ID to it.
+     *
+     * @param inf path of the INF file
+     * @param hardwareId hardware ID of the devices to update
+     * @return installer output
+     */
+    public synchronized String update(String inf, String hardwareId) {
+        String header = "Updating drivers for " + hardwareId + " from " + inf + ".\n";
+        ArrayList<Device> selected = select(new String[]{hardwareId}, true);
+        if (selected.isEmpty()) {
+            return header + "update failed.\n";
+        }
+        String name = null;
+        for (Map.Entry<Integer, DriverPackage> entry : packages.entrySet()) {
+            if (inf.equalsIgnoreCase(entry.getValue().source)) {
+                name = "oem" + entry.getKey() + ".inf";
+                break;
+            }
+        }
+        if (name == null) {
+            packages.put(nextPackage, new DriverPackage(CADI_PROVIDER, CADI_CLASS, inf));
+            name = "oem" + nextPackage++ + ".inf";
+        }
+        for (Device device : selected) {
+            device.driverPackage = name;
+            device.driverDescription = CADI_DESCRIPTION;
+        }
+        return header + "Drivers installed successfully.\n";
+    }
+
+    /**
+     * remove drops every device matching any of the IDs from the tree.
+     *
+     * @param ids ID patterns
+     * @return installer output
+     */
+    public synchronized String remove(String... ids) {
+        ArrayList<Device> selected = select(ids, false);
+        StringBuilder sb = new StringBuilder();
+        for (Device device : selected) {
+            devices.remove(device.instanceId.toUpperCase(Locale.ENGLISH));
+            sb.append(device.instanceId).append(": Removed\n");
+        }
+        if (selected.isEmpty()) {
+            sb.append("No devices were removed.\n");
+        } else {
+            sb.append(selected.size()).append(" device(s) were removed.\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * dpDelete deletes a driver package from the driver store. Devices bound
+     * to it are unbound but, as with the installer, keep their description
+     * until they are reinstalled or removed.
+     *
+     * @param infName published name, e.g. "oem7.inf"
+     * @param force true to delete the package even if connected devices use
+     * it
+     * @return installer output
+     */
+    public synchronized String dpDelete(String infName, boolean force) {
+        String failure = "Deleting the specified Driver Package from the machine failed.\ndp_delete failed.\n";
+        String lower = infName.toLowerCase(Locale.ENGLISH);
+        if (!lower.startsWith("oem") || !lower.endsWith(".inf")) {
+            return failure;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(lower.substring(3, lower.length() - 4));
+        } catch (NumberFormatException ex) {
+            return failure;
+        }
+        if (!packages.containsKey(number)) {
+            return failure;
+        }
+        for (Device device : devices.values()) {
+            if (!force && device.present && lower.equals(device.driverPackage)) {
+                return failure;
+            }
+        }
+        packages.remove(number);
+        for (Device device : devices.values()) {
+            if (lower.equals(device.driverPackage)) {
+                device.driverPackage = null; //the description stays until the device is reinstalled
+            }
+        }
+        return "Driver package '" + infName + "' deleted.\n";
+    }
+
+    /**
+     * dpEnum lists the third party driver packages.
+     *
+     * @return installer output
+     */
+    public synchronized String dpEnum() {
+        if (packages.isEmpty()) {
+            return "There are no 3rd party drivers on this machine.\n";
+        }
+        StringBuilder sb = new StringBuilder("The following 3rd party Driver Packages are on this machine:\n");
+        for (Map.Entry<Integer, DriverPackage> entry : packages.entrySet()) {
+            sb.append("oem").append(entry.getKey()).append(".inf\n");
+            sb.append("    Provider: ").append(entry.getValue().provider).append('\n');
+            sb.append("    Class: ").append(entry.getValue().deviceClass).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * rescan reports a hardware scan; the simulated tree is always current.
+     *
+     * @return installer output
+     */
+    public synchronized String rescan() {
+        return "Scanning for new hardware.\nScanning completed.\n";
+    }
+}
@@ -17,8 +17,6 @@
 package CADI;
 
 import CADI.Lib;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -32,15 +30,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.swing.Timer;
+import java.util.concurrent.Future;
 
 /**
  * Provides a set of tools designed to identify the operating system and
@@ -75,55 +70,172 @@ public class Target {
 
         public static class Shell {
 
-            public class TimeoutLogger {
-
-                TimeoutLogger(boolean realTime, Process p, final String[] restartTimerKeywords, int timeOut) {
-                    this.realTime = realTime;
-                    processRunning = p;
-                    this.timeOut = timeOut;
-                    this.restartTimerKeywords = restartTimerKeywords;
-                }
-                String[] restartTimerKeywords;
-                boolean realTime;
-                int timeOut;
-                private final StringBuilder log = new StringBuilder();
-                AtomicBoolean timedOut = new AtomicBoolean(false);
-                AtomicBoolean isRunning = new AtomicBoolean(true);
-                final Object isRunningLock = new Object();
-                AtomicBoolean isLogging = new AtomicBoolean(true);
-                final Object isLoggingLock = new Object();
-                final Process processRunning;
-
-                final Timer watchDogTimer = new Timer(timeOut, new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent evt) {
-                        log.append("Watchdog Triggered!  Command timed out.");
-                        timedOut.set(true);
-                        synchronized (processRunning) {
-                            processRunning.notifyAll();
+            /**
+             * TimeoutLogger collects the output of a watched command. Each
+             * character is stored once and stepped through a
+             * KeywordAutomaton; a keyword completing touches the process,
+             * postponing its inactivity deadline.
+             */
+            public class TimeoutLogger implements OutputPipeline.Output {
+
+                private final KeywordAutomaton keywords;
+                private final ProcessSupervisor.Supervised processRunning;
+                private final OutputPipeline.Sink log = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
+                private final OutputPipeline.Output realTime;
+                private int state = KeywordAutomaton.START;
+
+                TimeoutLogger(boolean realTime, ProcessSupervisor.Supervised p, KeywordAutomaton keywords) {
+                    this.processRunning = p;
+                    this.keywords = keywords;
+                    this.realTime = realTime ? OutputPipeline.lines(new LineListener() {
+                        @Override
+                        public void line(String line) {
+                            Lib.log.appendLog(line);
                         }
+                    }) : null;
+                }
+
+                @Override
+                public synchronized void write(CharBuffer chars) {
+                    if (realTime != null) {
+                        realTime.write(chars.duplicate());
                     }
-                });
-
-                synchronized void log(char c) {
-                    log.append(c);
-                    if (realTime) {
-                        log.append(java.lang.Character.toString(c));
-                        String logstring = log.toString();
-                        for (String check : restartTimerKeywords) {
-                            if (logstring.endsWith(check) && isRunning.get()) {
-                                log.append("Timer Reset on keyword ").append(check);
-                                watchDogTimer.restart();
-                            }
+                    while (chars.hasRemaining()) {
+                        char c = chars.get();
+                        log.append(c);
+                        state = keywords.step(state, c);
+                        int found = keywords.matched(state);
+                        if (found >= 0) {
+                            processRunning.touch();
+                            Lib.log.appendLog("Timer Reset on keyword " + keywords.keyword(found));
                         }
                     }
                 }
 
+                @Override
+                public synchronized void end() {
+                    if (realTime != null) {
+                        realTime.end();
+                    }
+                }
+
                 synchronized String get() {
                     return log.toString();
                 }
             }
 
+            /**
+             * Cancellation lets another thread kill the processes started on
+             * behalf of an operation. A Cancellation bound to a thread is
+             * picked up by every command that thread launches.
+             */
+            public static final class Cancellation {
+
+                private static final ThreadLocal<Cancellation> bound = new ThreadLocal<>();
+                private final ArrayList<Process> processes = new ArrayList<>();
+                private final ArrayList<Runnable> hooks = new ArrayList<>();
+                private boolean cancelled;
+
+                /**
+                 * bind attaches a Cancellation to the calling thread.
+                 *
+                 * @param cancellation Cancellation to attach, or null to detach
+                 * @return the Cancellation previously bound, to be restored
+                 * afterwards
+                 */
+                public static Cancellation bind(Cancellation cancellation) {
+                    Cancellation previous = bound.get();
+                    if (cancellation == null) {
+                        bound.remove();
+                    } else {
+                        bound.set(cancellation);
+                    }
+                    return previous;
+                }
+
+                /**
+                 * @return the Cancellation bound to the calling thread, or null
+                 */
+                public static Cancellation current() {
+                    return bound.get();
+                }
+
+                /**
+                 * register tracks a process until it exits. A process registered
+                 * after cancellation is destroyed immediately.
+                 *
+                 * @param process process to track
+                 */
+                public synchronized void register(Process process) {
+                    if (cancelled) {
+                        ProcessSupervisor.destroyTree(process);
+                        return;
+                    }
+                    processes.add(process);
+                }
+
+                public synchronized void unregister(Process process) {
+                    processes.remove(process);
+                }
+
+                /**
+                 * onCancel registers a hook run on cancellation, typically to
+                 * wake a thread waiting for a process. A hook registered after
+                 * cancellation runs immediately.
+                 *
+                 * @param hook hook to run
+                 */
+                public void onCancel(Runnable hook) {
+                    synchronized (this) {
+                        if (!cancelled) {
+                            hooks.add(hook);
+                            return;
+                        }
+                    }
+                    hook.run();
+                }
+
+                public synchronized void removeOnCancel(Runnable hook) {
+                    hooks.remove(hook);
+                }
+
+                /**
+                 * cancel destroys every tracked process tree and any process
+                 * registered later, then runs the cancellation hooks.
+                 */
+                public void cancel() {
+                    Runnable[] toRun;
+                    synchronized (this) {
+                        cancelled = true;
+                        for (Process process : processes) {
+                            ProcessSupervisor.destroyTree(process);
+                        }
+                        processes.clear();
+                        toRun = hooks.toArray(new Runnable[hooks.size()]);
+                        hooks.clear();
+                    }
+                    for (Runnable hook : toRun) {
+                        hook.run();
+                    }
+                }
+
+                public synchronized boolean isCancelled() {
+                    return cancelled;
+                }
+            }
+
+            /**
+             * LineListener receives command output one line at a time, as it
+             * is read from the process.
+             */
+            public interface LineListener {
+
+                /**
+                 * @param line a line of output without its line terminator
+                 */
+                void line(String line);
+            }
+
             /**
              * timerimeoutimerShellCommand is a multi-threaded method and
              * reports to the TimeOutimerStimerring class. The value contained
@@ -135,154 +247,138 @@ public class Target {
              * @return any text from the command
              */
             public String timeoutShellCommand(final String[] cmd, int timeout) {
-                //final object for runnable to write out to.
-                class TimeoutString {
-
-                    public String AllText = "";
+                OutputPipeline.Sink output = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
+                boolean completed = supervise(cmd, timeout, new ProcessSupervisor.Supervised[1], OutputPipeline.lines(output));
+                if (output.dropped() > 0) {
+                    Lib.log.appendLog("timeoutShellCommand() kept the last " + output.length() + " characters of output from " + cmd[0]);
                 }
-                final TimeoutString tos = new TimeoutString();
+                if (!completed) {
+                    return "Timeout!!! " + output.toString();
+                }
+                return output.toString();
+            }
 
-                //Runnable executes in the background
-                Runnable runCommand = new Runnable() {
+            /**
+             * timeoutShellCommand streams the output of a command to a
+             * LineListener as it arrives instead of holding it in memory. The
+             * listener is called on the calling thread. If the timeout elapses
+             * the process tree is destroyed and no further lines are
+             * delivered.
+             *
+             * @param cmd to be executed
+             * @param timeout in milliseconds
+             * @param listener receives each line of output
+             * @return true if the command completed before the timeout
+             */
+            public boolean timeoutShellCommand(final String[] cmd, int timeout, final LineListener listener) {
+                final ProcessSupervisor.Supervised[] process = new ProcessSupervisor.Supervised[1];
+                return supervise(cmd, timeout, process, OutputPipeline.lines(new LineListener() {
                     @Override
-                    public void run() {
-                        Lib.log.appendLog("###executing timeout command: " + cmd[0] + "###");
-                        try {
-                            String line;
-                            ProcessBuilder p = new ProcessBuilder(cmd);
-                            p.redirectErrorStream(true);
-                            Process process = p.start();
-                            BufferedReader STDOUT = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                            while ((line = STDOUT.readLine()) != null) {
-                                tos.AllText = tos.AllText + line + "\n";
-                            }
-                            //Log.level0(cmd[0]+"\":"+AllText);
-                        } catch (IOException ex) {
-                            Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd) + " " + tos.AllText);
+                    public void line(String line) {
+                        if (!process[0].wasKilled()) {
+                            listener.line(line);
                         }
                     }
-                };
-                //t executes the runnable on a different thread
-                Thread t = new Thread(runCommand);
-                t.setDaemon(true);
-                t.setName("TimeOutShell " + cmd[0] + timeout + "ms abandon time");
-                t.start();
-
-                //set up timeout with calendar time in millis
-                Calendar endTime = Calendar.getInstance();
-                endTime.add(Calendar.MILLISECOND, timeout);
-                //loop while not timeout and halt if thread dies. 
-                while (Calendar.getInstance().getTimeInMillis() < endTime.getTimeInMillis()) {
-                    if (!t.isAlive()) {
-                        break;
-                    }
+                }));
+            }
+
+            /**
+             * supervise runs a command with standard error merged into its
+             * output, which is drained into output by the Supervised
+             * process, so the call returns once the process was killed even
+             * where its children cannot be.
+             *
+             * @param process receives the Supervised process once started
+             * @return true if the command completed before the timeout
+             */
+            private boolean supervise(String[] cmd, int timeout, ProcessSupervisor.Supervised[] process, OutputPipeline.Output output) {
+                long started = System.nanoTime();
+                Lib.log.appendLog("###executing timeout command: " + cmd[0] + "###");
+                ProcessBuilder p = new ProcessBuilder(cmd);
+                p.redirectErrorStream(true);
+                try {
+                    process[0] = ProcessSupervisor.start(p, String.join(" ", cmd), timeout);
+                } catch (IOException ex) {
+                    Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd));
+                    CommandMetrics.record(CommandMetrics.SHELL, started, CommandMetrics.Outcome.FAILURE);
+                    return true;
                 }
-                if (Calendar.getInstance().getTimeInMillis() >= endTime.getTimeInMillis()) {
-                    Lib.log.appendLog("TimeOut on " + cmd[0] + " after " + timeout + "ms. Returning what was received.");
-                    return "Timeout!!! " + tos.AllText;
+                try {
+                    try {
+                        process[0].drain(process[0].process().getInputStream(), OutputPipeline.oemCharset(), output);
+                    } catch (IOException ex) {
+                        if (!process[0].wasKilled()) {
+                            Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd));
+                        }
+                    }
+                    if (!process[0].waitFor()) {
+                        CommandMetrics.record(CommandMetrics.SHELL, started, CommandMetrics.Outcome.TIMEOUT);
+                        return false;
+                    }
+                } finally {
+                    process[0].release();
                 }
-                //return values logged from TimeoutKeywordReader class above
-                return tos.AllText;
-
+                CommandMetrics.record(CommandMetrics.SHELL, started, CommandMetrics.Outcome.SUCCESS);
+                return true;
             }
 
-            /*
-             * Complex, but bulletproof method of running a shell command.  launches a
-             * process, and waits for it to complete.   Launches a watchdog timer which
-             * will cause the process to stop waiting after a defined period of time.
-             * Monitors for keywords which trigger the timer to be reset.  This allows
-             * running of commands which have a high probability of timing out, or may
-             * take a while.
-             * @param cmd array of commands. eg. "new string[]{command, param, param}"
-             * @param timeout process timeout in ms. The process will be abandoned after this time.
-             * @param restartTimerKeywords keywords which reset the timer.
-             * @param logLevel2 Set to true if user viewable logging is preferable.
-             * @return Text received from command.
-             * @author Adam Outler adamoutler@gmail.com
-             */
             /**
+             * Complex, but bulletproof method of running a shell command.
+             * launches a process, and waits for it to complete. A watchdog
+             * kills the process once it has been silent about its progress
+             * for a defined period of time: each time the output completes
+             * one of the keywords, the period starts again. This allows
+             * running of commands which have a high probability of timing
+             * out, or may take a while.
+             * <p>
+             * Keywords are matched on the decoded output as it streams, in
+             * constant time per character; the watchdog is a task on the
+             * ProcessSupervisor's reaper.
              *
-             * @param cmd
-             * @param restartTimerKeywords
-             * @param timeout
-             * @param logLevel2
-             * @param shell
-             * @return
+             * @param cmd array of commands. eg. "new string[]{command, param,
+             * param}"
+             * @param restartTimerKeywords keywords which reset the timer.
+             * @param timeout milliseconds the process may run without
+             * printing a keyword before it is killed.
+             * @param logLevel2 Set to true if user viewable logging is
+             * preferable.
+             * @param shell unused
+             * @return Text received from command, prefixed with "Timeout!!! "
+             * if the watchdog killed it.
+             * @author Adam Outler adamoutler@gmail.com
              */
             public String timeoutShellCommandWithWatchdog(final String[] cmd, final String[] restartTimerKeywords, final int timeout, final boolean logLevel2, Target shell) {
-                StringBuilder sb = new StringBuilder();
+                ProcessBuilder p = new ProcessBuilder(cmd);
+                p = p.redirectErrorStream(true);
+                ProcessSupervisor.Supervised process;
                 try {
-                    ProcessBuilder p = new ProcessBuilder(cmd);
-                    p = p.redirectErrorStream(true);
-                    final Process process = p.start();
-                    final TimeoutLogger tl = new TimeoutLogger(logLevel2, process, restartTimerKeywords, timeout);
-                    Thread processMonitor = new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                tl.processRunning.waitFor();
-                                tl.watchDogTimer.stop();
-                                tl.isRunning.set(false);
-                                Lib.log.appendLog("Process Monitor done.");
-                                synchronized (tl.processRunning) {
-                                    tl.processRunning.notifyAll();
-                                }
-                            } catch (InterruptedException ex) {
-                                Logger.getLogger(Target.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                        }
-                    });
-                    processMonitor.setName("Monitoring Process Exit Status from " + cmd[0]);
-                    Thread reader = new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            BufferedInputStream STDOUT = new BufferedInputStream(tl.processRunning.getInputStream());
-                            Lib.log.appendLog("Instantiating reader process");
-                            try {
-                                while (tl.isRunning.get() && !tl.timedOut.get()) {
-                                    if (STDOUT.available() > 0) {
-                                        char read = (char) STDOUT.read();
-                                        tl.log(read);
-                                    }
-                                }
-                                tl.watchDogTimer.stop();
-                                Thread.sleep(100);
-                                while (STDOUT.available() > 0) {
-                                    char read = (char) STDOUT.read();
-                                    tl.log(read);
-                                }
-                                tl.isLogging.set(false);
-                                synchronized (tl.processRunning) {
-                                    tl.processRunning.notifyAll();
-                                }
-                            } catch (IOException | InterruptedException ex) {
-                                Logger.getLogger(Target.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                        }
-                    });
-                    reader.setName("Reading and monitoring output from " + cmd[0]);
-                    reader.start();
-                    tl.watchDogTimer.start();
-                    processMonitor.start();
-                    synchronized (tl.processRunning) {
-                        tl.processRunning.wait();
-                    }
-                    if (tl.isLogging.get()) {
-                        synchronized (tl.processRunning) {
-                            tl.processRunning.wait();
+                    process = ProcessSupervisor.start(p, String.join(" ", cmd), 0); //the watchdog owns the deadline
+                } catch (IOException ex) {
+                    Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd) + " " + ex.getLocalizedMessage());
+                    return "";
+                }
+                TimeoutLogger tl = new TimeoutLogger(logLevel2, process, new KeywordAutomaton(restartTimerKeywords == null ? new String[0] : restartTimerKeywords));
+                Lib.log.appendLog("Instantiating reader process");
+                process.watchInactivity(timeout);
+                boolean exited;
+                try {
+                    try {
+                        process.drain(process.process().getInputStream(), OutputPipeline.oemCharset(), tl);
+                    } catch (IOException ex) {
+                        if (!process.wasKilled()) {
+                            Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd));
                         }
                     }
-                    String retvalue = tl.get();
-                    if (tl.timedOut.get()) {
-                        retvalue = "Timeout!!! " + retvalue;
-                        process.destroy();
-                    }
-                    return retvalue;
-                } catch (IOException | InterruptedException ex) {
-                    Logger.getLogger(Target.class.getName()).log(Level.SEVERE, null, ex);
+                    exited = process.waitFor();
+                } finally {
+                    process.release();
                 }
-                return "";
+                Lib.log.appendLog("Process Monitor done.");
+                String retvalue = tl.get();
+                if (!exited) {
+                    retvalue = "Timeout!!! " + retvalue;
+                }
+                return retvalue;
             }
 
             /**
@@ -294,38 +390,29 @@ public class Target {
              */
             public String sendShellCommand(String[] cmd) {
                 Lib.log.appendLog("###executing: " + cmd[0] + "###");
-                String AllText = "";
+                OutputPipeline.Sink stdout = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
+                OutputPipeline.Sink stderr = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
                 try {
-                    String line;
-                    Process process = new ProcessBuilder(cmd).start();
-                    BufferedReader STDOUT = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    BufferedReader STDERR = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+                    ProcessSupervisor.Supervised supervised = ProcessSupervisor.start(new ProcessBuilder(cmd), String.join(" ", cmd), 0);
                     try {
-                        process.waitFor();
-                    } catch (InterruptedException ex) {
-                        Lib.log.appendLog(ex.getLocalizedMessage());
+                        Process process = supervised.process();
+                        Future<?> errors = OutputPipeline.drainInBackground(process.getErrorStream(), OutputPipeline.oemCharset(), stderr);
+                        OutputPipeline.drain(process.getInputStream(), OutputPipeline.oemCharset(), stdout);
+                        OutputPipeline.await(errors);
+                        supervised.waitFor();
+                    } finally {
+                        supervised.release();
                     }
-                    int y = 0;
-                    while ((line = STDOUT.readLine()) != null) {
-                        if (y == 0) {
-                            AllText = AllText + "\n" + line + "\n";
-                        } else {
-                            AllText = AllText + line + "\n";
-                        }
-                        y++;
+                    StringBuilder AllText = new StringBuilder(stdout.length() + stderr.length() + 3);
+                    if (stdout.length() > 0) {
+                        AllText.append('\n').append(stdout);
                     }
-                    y = 0;
-                    while ((line = STDERR.readLine()) != null && !line.equals("")) {
-                        if (y == 0) {
-                            AllText = AllText + "\n" + line + "\n";
-                        } else {
-                            AllText = AllText + line + "\n";
-                        }
-                        y++;
+                    if (stderr.length() > 0) {
+                        AllText.append('\n').append(stderr);
                     }
-                    return AllText + "\n";
+                    return AllText.append('\n').toString();
                 } catch (IOException ex) {
-                    Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd) + "\nreturnval:" + AllText);
+                    Lib.log.appendLog("@problemWhileExecutingCommand " + DataType.Strings.arrayToString(cmd) + "\nreturnval:" + stdout + stderr);
                     return "CritERROR!!!";
                 }
             }
@@ -340,31 +427,35 @@ public class Target {
              * @author Adam Outler adamoutler@gmail.com
              */
             public String liveShellCommand(String[] params, boolean display) {
-                String LogRead = "";
+                final StringBuilder LogRead = new StringBuilder();
+                final boolean log = display;
                 try {
                     ProcessBuilder p = new ProcessBuilder(params);
                     p.redirectErrorStream(true);
-                    Process process = p.start();
-                    Lib.log.appendLog("###executing real-time command: " + params[0] + "###");
-                    BufferedReader STDOUT = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    String LineRead = "";
-                    String CharRead;
-                    int c;
-                    while ((c = STDOUT.read()) > -1) {
-                        CharRead = Character.toString((char) c);
-                        LineRead = LineRead + CharRead;
-                        LogRead = LogRead + CharRead;
-                        if (display) {
-                            Lib.log.appendLog(CharRead);
-                        }
+                    ProcessSupervisor.Supervised supervised = ProcessSupervisor.start(p, String.join(" ", params), 0);
+                    try {
+                        Process process = supervised.process();
+                        Lib.log.appendLog("###executing real-time command: " + params[0] + "###");
+                        OutputPipeline.drain(process.getInputStream(), OutputPipeline.oemCharset(), new LineListener() {
+                            @Override
+                            public void line(String line) {
+                                LogRead.append(line).append('\n');
+                                if (log) {
+                                    Lib.log.appendLog(line);
+                                }
+                            }
+                        });
+                        supervised.waitFor();
+                    } finally {
+                        supervised.release();
                     }
                 } catch (RuntimeException ex) {
                     Lib.log.appendLog(ex.getLocalizedMessage());
-                    return LogRead;
+                    return LogRead.toString();
                 } catch (IOException ex) {
                     Lib.log.appendLog(ex.getLocalizedMessage());
                 }
-                return LogRead;
+                return LogRead.toString();
             }
 
             /**
@@ -375,20 +466,23 @@ public class Target {
              * @author Adam Outler adamoutler@gmail.com
              */
             public String silentShellCommand(String[] cmd) {
-                String AllText = "";
+                OutputPipeline.Sink stdout = new OutputPipeline.Sink(OutputPipeline.DEFAULT_LIMIT);
                 try {
-                    String line;
-                    Process process = new ProcessBuilder(cmd).start();
-                    BufferedReader STDOUT = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                    ProcessSupervisor.Supervised supervised = ProcessSupervisor.start(new ProcessBuilder(cmd), String.join(" ", cmd), 0);
                     try {
-                        process.waitFor();
-                    } catch (InterruptedException ex) {
-                        Lib.log.appendLog(ex.getLocalizedMessage());
+                        Process process = supervised.process();
+                        Future<?> errors = OutputPipeline.drainInBackground(process.getErrorStream(), OutputPipeline.oemCharset(), null);
+                        OutputPipeline.drain(process.getInputStream(), OutputPipeline.oemCharset(), stdout);
+                        OutputPipeline.await(errors);
+                        supervised.waitFor();
+                    } finally {
+                        supervised.release();
                     }
-                    while ((line = STDOUT.readLine()) != null) {
-                        AllText = AllText + "\n" + line;
+                    if (stdout.length() == 0) {
+                        return "";
                     }
-                    return AllText;
+                    //one "\n" before each line, none after the last
+                    return new StringBuilder(stdout.length() + 1).append('\n').append(stdout, 0, stdout.length() - 1).toString();
                 } catch (IOException ex) {
                     return "CritERROR!!!";
                 }
@@ -0,0 +1,291 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Transcript is a recording of installer commands: each command line, its
+ * full output, whether it completed and how long it took. Transcripts taken
+ * on field machines can be served back by a ReplayBackend on any host.
+ * <p>
+ * The file is a gzip compressed stream of records. An output identical to
+ * a recent one (repeated findall or dp_enum queries) is stored as a
+ * reference to the earlier record, so long sessions stay small.
+ * <p>
+ * Commands are stored normalized: the folder of an INF file, which differs
+ * per run, user and host, is replaced by PAYLOAD.
+ */
+public final class Transcript {
+
+    private static final int MAGIC = 0x43414454; //CADT
+    private static final short VERSION = 1;
+    private static final byte END = 0;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * PAYLOAD stands for the driver package folder in normalized commands.
+     */
+    public static final String PAYLOAD = "<payload>";
+
+    /**
+     * infPath matches the folder of the INF file an installer verb is given,
+     * e.g. the package folder in "update C:\...\cadi.inf "HWID"".
+     */
+    private static final Pattern infPath = Pattern.compile("^(\\S+ )(.+?[\\\\/])([^\\\\/\\s\"]+\\.inf)(?=\\s|$)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * MAX_REMEMBERED_CHARS bounds the outputs a Writer keeps to recognize
+     * repeats; the least recently repeated are forgotten first.
+     */
+    private static final int MAX_REMEMBERED_CHARS = 1 << 22;
+
+    public enum Kind {
+
+        EXECUTE, STREAM
+    }
+
+    private Transcript() {
+    }
+
+    /**
+     * normalize replaces the folder of an INF file in an installer command
+     * line with PAYLOAD, so commands recorded on one machine match the same
+     * commands issued on another.
+     *
+     * @param command installer command line (without the executable)
+     * @return the command with its INF folder replaced
+     */
+    public static String normalize(String command) {
+        return infPath.matcher(command).replaceFirst("$1" + PAYLOAD + "/$3");
+    }
+
+    /**
+     * Entry is one recorded command.
+     */
+    public static final class Entry {
+
+        public final Kind kind;
+        public final String command;
+        public final boolean elevated;
+        public final boolean completed;
+        public final long durationNanos;
+        public final String output;
+
+        public Entry(Kind kind, String command, boolean elevated, boolean completed, long durationNanos, String output) {
+            this.kind = kind;
+            this.command = command;
+            this.elevated = elevated;
+            this.completed = completed;
+            this.durationNanos = durationNanos;
+            this.output = output;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + command + (elevated ? " (elevated)" : "") + (completed ? "" : " (timed out)")
+                    + " " + durationNanos / 1000000 + "ms " + output.length() + " chars";
+        }
+    }
+
+    /**
+     * Writer appends entries to a transcript file. It may be shared by any
+     * number of threads.
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final LinkedHashMap<String, Integer> outputs = new LinkedHashMap<>(16, 0.75f, true);
+        private long remembered;
+        private int count;
+
+        public Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 65536)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+        }
+
+        /**
+         * write appends one entry.
+         *
+         * @param entry the recorded command
+         * @throws IOException if the transcript cannot be written
+         */
+        public synchronized void write(Entry entry) throws IOException {
+            out.writeByte(entry.kind.ordinal() + 1);
+            out.writeBoolean(entry.elevated);
+            out.writeBoolean(entry.completed);
+            out.writeLong(entry.durationNanos);
+            out.writeUTF(normalize(entry.command));
+            Integer previous = outputs.get(entry.output);
+            if (previous != null) {
+                out.writeInt(-1 - previous);
+            } else {
+                byte[] data = entry.output.getBytes(UTF8);
+                out.writeInt(data.length);
+                out.write(data);
+                remember(entry.output);
+            }
+            count++;
+        }
+
+        private void remember(String output) {
+            if (output.length() > MAX_REMEMBERED_CHARS) {
+                return;
+            }
+            outputs.put(output, count);
+            remembered += output.length();
+            Iterator<Map.Entry<String, Integer>> eldest = outputs.entrySet().iterator();
+            while (remembered > MAX_REMEMBERED_CHARS) {
+                remembered -= eldest.next().getKey().length();
+                eldest.remove();
+            }
+        }
+
+        /**
+         * @return number of entries written
+         */
+        public synchronized int size() {
+            return count;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.writeByte(END);
+            out.close();
+        }
+    }
+
+    /**
+     * read loads every entry of a transcript file.
+     *
+     * @param file transcript written by a Writer
+     * @return entries in recorded order
+     * @throws IOException if the file cannot be read or is not a transcript
+     */
+    public static ArrayList<Entry> read(File file) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException(file + " is not a CADI transcript");
+            }
+            int kind;
+            while ((kind = in.readByte()) != END) {
+                boolean elevated = in.readBoolean();
+                boolean completed = in.readBoolean();
+                long duration = in.readLong();
+                String command = in.readUTF();
+                int length = in.readInt();
+                String output;
+                if (length < 0) {
+                    output = entries.get(-1 - length).output;
+                } else {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    output = new String(data, UTF8);
+                }
+                entries.add(new Entry(Kind.values()[kind - 1], command, elevated, completed, duration, output));
+            }
+        } catch (EOFException ex) {
+            Lib.log.appendLog("Transcript() " + file + " ends early, it was probably not closed");
+        }
+        return entries;
+    }
+
+    /**
+     * RecordingBackend passes commands on to another backend and writes each
+     * one, with its output and duration, to a transcript.
+     */
+    public static final class RecordingBackend implements DriverBackend {
+
+        private final DriverBackend delegate;
+        private final Writer writer;
+
+        public RecordingBackend(DriverBackend delegate, Writer writer) {
+            this.delegate = delegate;
+            this.writer = writer;
+        }
+
+        @Override
+        public String execute(String cmd, boolean elevated, int timeout) {
+            long started = System.nanoTime();
+            String output = delegate.execute(cmd, elevated, timeout);
+            record(new Entry(Kind.EXECUTE, cmd, elevated, !output.startsWith("Timeout!!!"), System.nanoTime() - started, output));
+            return output;
+        }
+
+        /**
+         * executeChain records each command of the chain on its own, sharing
+         * the chain's duration evenly, so a replay can serve them singly or
+         * chained.
+         */
+        @Override
+        public String[] executeChain(String[] cmds, boolean elevated, int timeout) {
+            long started = System.nanoTime();
+            String[] outputs = delegate.executeChain(cmds, elevated, timeout);
+            long share = (System.nanoTime() - started) / Math.max(1, cmds.length);
+            for (int i = 0; i < cmds.length; i++) {
+                record(new Entry(Kind.EXECUTE, cmds[i], elevated, !outputs[i].startsWith("Timeout!!!"), share, outputs[i]));
+            }
+            return outputs;
+        }
+
+        @Override
+        public boolean stream(String cmd, int timeout, final Target.HostSystem.Shell.LineListener listener) {
+            final StringBuilder output = new StringBuilder();
+            long started = System.nanoTime();
+            boolean completed = delegate.stream(cmd, timeout, new Target.HostSystem.Shell.LineListener() {
+                @Override
+                public void line(String line) {
+                    output.append(line).append('\n');
+                    listener.line(line);
+                }
+            });
+            record(new Entry(Kind.STREAM, cmd, false, completed, System.nanoTime() - started, output.toString()));
+            return completed;
+        }
+
+        private void record(Entry entry) {
+            try {
+                writer.write(entry);
+            } catch (IOException ex) {
+                Lib.log.appendLog("Transcript() could not record " + entry.command + ": " + ex.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -18,14 +18,32 @@ package CADI;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -39,13 +57,29 @@ import java.util.zip.ZipInputStream;
 public class Unzip {
 
     static int BUFFER = 4096;
+
+    /**
+     * LARGE_ENTRY is the size from which unzipFileParallel preallocates an
+     * entry's file and copies it through LARGE_BUFFER sized chunks.
+     */
+    static final long LARGE_ENTRY = 1 << 20;
+    static final int LARGE_BUFFER = 1 << 16;
     final ZipFile zip;
 
+    /**
+     * reader is this Unzip's lease on the shared ArchivePool, so several
+     * Unzip objects of one file open at the same time share one open ZipFile
+     * and its index.
+     */
+    private final ArchivePool.Reader reader;
+
     /**
      * Unzip provides a set of methods which work to unzip files.
      */
     public Enumeration<? extends ZipEntry> zipFileEntries;
 
+    private volatile ProgressListener progressListener;
+
     /**
      * Unzip class is used to create a wrapper for unziping .zip files.
      * <p>
@@ -58,7 +92,8 @@ public class Unzip {
      * @see ZipFile
      */
     public Unzip(File f) throws ZipException, IOException {
-        this.zip = new ZipFile(f);
+        this.reader = ArchivePool.shared().acquire(f);
+        this.zip = reader.getZipFile();
         try {
             this.zipFileEntries = zip.entries();
         } catch (Exception e) {
@@ -78,7 +113,8 @@ public class Unzip {
      * @see ZipFile
      */
     public Unzip(String f) throws ZipException, IOException {
-        this.zip = new ZipFile(new File(f));
+        this.reader = ArchivePool.shared().acquire(new File(f));
+        this.zip = reader.getZipFile();
         try {
             this.zipFileEntries = zip.entries();
         } catch (Exception e) {
@@ -86,6 +122,33 @@ public class Unzip {
         }
     }
 
+    /**
+     * Sets the listener told about the progress of every extraction this
+     * Unzip performs from now on.
+     *
+     * @param listener the listener, or null for none
+     * @see ProgressListener
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * totalSize adds up the uncompressed size of every file in the zip.
+     *
+     * @return total size in bytes, -1 if any entry's size is unknown
+     */
+    private long totalSize() {
+        long total = 0;
+        for (ZipEntry entry : reader.entries()) {
+            if (entry.getSize() < 0) {
+                return -1;
+            }
+            total += entry.isDirectory() ? 0 : entry.getSize();
+        }
+        return total;
+    }
+
     /**
      * Unzips the ZipFile that was specified in the constructor of the class.
      * Creates folder if necessary
@@ -97,14 +160,49 @@ public class Unzip {
      * @see CASUAL.archiving.Unzip#Unzip(File)
      */
     public File[] unzipFile(String outputFolder) throws ZipException, IOException {
-        return unzipFileToFolder(outputFolder);
+        return unzipFileToFolder(outputFolder, false);
+    }
+
+    /**
+     * Unzips the ZipFile that was specified in the constructor of the class,
+     * optionally rewriting only what changed since the previous extraction.
+     * <p>
+     * In incremental mode an entry is skipped when the folder's Manifest
+     * shows it was written with the same size and CRC-32 and the file on
+     * disk still has the size and modification time recorded then. Files
+     * recorded by the previous extraction which the zip no longer contains
+     * are deleted.
+     *
+     * @param outputFolder folder to be unzipped to
+     * @param incremental true to skip unchanged entries
+     * @return array of files unzipped, including unchanged ones
+     * @throws ZipException
+     * @throws IOException
+     * @see Manifest
+     */
+    public File[] unzipFile(String outputFolder, boolean incremental) throws ZipException, IOException {
+        return unzipFileToFolder(outputFolder, incremental);
     }
 
-    private File[] unzipFileToFolder(String outputFolder) throws ZipException, IOException {
+    private File[] unzipFileToFolder(String outputFolder, boolean incremental) throws ZipException, IOException {
         Lib.log.appendLog("Unzipping " + zip.toString());
         ArrayList<File> files = new ArrayList<File>();
         String newPath = outputFolder + System.getProperty("file.separator");
         new File(newPath).mkdir();
+        Manifest previous = incremental ? Manifest.read(new File(newPath)) : null;
+        Manifest current = new Manifest();
+        ProgressTracker tracker = ProgressTracker.start(progressListener, zip.getName(), totalSize());
+        try {
+            extractEntries(newPath, previous, current, files, tracker);
+            finishIncremental(previous, current, new File(newPath));
+            tracker.complete();
+        } finally {
+            tracker.finish();
+        }
+        return files.toArray(new File[files.size()]);
+    }
+
+    private void extractEntries(String newPath, Manifest previous, Manifest current, ArrayList<File> files, ProgressTracker tracker) throws IOException {
         zipFileEntries = zip.entries();
         // Process each entry
         while (zipFileEntries.hasMoreElements()) {
@@ -117,17 +215,215 @@ public class Unzip {
             // create the parent directory structure if needed
             destinationParent.mkdirs();
             if (!entry.isDirectory()) {
-                Lib.log.appendLog("unzipping " + entry.toString());
-                writeFromZipToFile(zip, entry, newPath);
+                if (previous != null && previous.isCurrent(entry, destFile)) {
+                    current.keep(previous, currentEntry);
+                    tracker.skip(entry.getSize());
+                } else {
+                    Lib.log.appendLog("unzipping " + entry.toString());
+                    writeFromZipToFile(zip, entry, newPath, tracker);
+                    current.put(entry, destFile);
+                }
                 files.add(destFile);
             } else if (entry.isDirectory()) {
                 Lib.log.appendLog(newPath + entry.getName());
                 new File(newPath + entry.getName()).mkdirs();
             }
         }
+    }
+
+    /**
+     * finishIncremental deletes stale files and records the new Manifest.
+     * The Manifest is only written once every entry is done, so after an
+     * interrupted extraction the files it did rewrite no longer match the
+     * old Manifest's modification times and are written again.
+     */
+    private static void finishIncremental(Manifest previous, Manifest current, File folder) throws IOException {
+        if (previous == null) {
+            return;
+        }
+        int removed = previous.removeStale(current, folder);
+        current.write(folder);
+        Lib.log.appendLog("Unzip kept " + current.kept + " unchanged, rewrote " + (current.size() - current.kept) + ", removed " + removed + " stale file(s)");
+    }
+
+    /**
+     * Unzips the ZipFile that was specified in the constructor of the class
+     * using one worker thread per available processor.
+     *
+     * @param outputFolder folder to be unzipped to
+     * @return array of files unzipped
+     * @throws ZipException
+     * @throws IOException
+     * @see #unzipFileParallel(String, int)
+     */
+    public File[] unzipFileParallel(String outputFolder) throws ZipException, IOException {
+        return unzipFileParallel(outputFolder, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Unzips the ZipFile that was specified in the constructor of the class,
+     * inflating independent entries at the same time.
+     * <p>
+     * The central directory is read first and every folder is created once,
+     * before any entry is written. Entries are then handed to a fork-join
+     * pool, largest first so a big entry does not start last. Entries of
+     * LARGE_ENTRY bytes or more have their file preallocated to the final
+     * size and are copied through LARGE_BUFFER sized chunks.
+     *
+     * @param outputFolder folder to be unzipped to
+     * @param parallelism number of entries inflated at the same time
+     * @return array of files unzipped, in the order of the zip's central
+     * directory, as unzipFile returns them
+     * @throws ZipException
+     * @throws IOException if any entry could not be written; the remaining
+     * entries are abandoned
+     * @see java.util.concurrent.ForkJoinPool
+     */
+    public File[] unzipFileParallel(String outputFolder, int parallelism) throws ZipException, IOException {
+        Lib.log.appendLog("Unzipping " + zip.getName() + " on " + parallelism + " thread(s)");
+        File root = new File(outputFolder);
+        ArrayList<File> files = new ArrayList<>();
+        ArrayList<ZipEntry> entries = new ArrayList<>();
+        TreeSet<File> folders = new TreeSet<>();
+        folders.add(root);
+        zipFileEntries = zip.entries();
+        while (zipFileEntries.hasMoreElements()) {
+            ZipEntry entry = zipFileEntries.nextElement();
+            File destFile = new File(root, entry.getName());
+            if (entry.isDirectory()) {
+                folders.add(destFile);
+            } else {
+                folders.add(destFile.getParentFile());
+                files.add(destFile);
+                entries.add(entry);
+            }
+        }
+        for (File folder : folders) {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("@couldNotCreateFolder " + folder);
+            }
+        }
+
+        ArrayList<ZipEntry> largestFirst = new ArrayList<>(entries);
+        Collections.sort(largestFirst, new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry a, ZipEntry b) {
+                return Long.compare(b.getSize(), a.getSize());
+            }
+        });
+        final ProgressTracker tracker = ProgressTracker.start(progressListener, zip.getName(), totalSize());
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (final ZipEntry entry : largestFirst) {
+            final File destFile = new File(root, entry.getName());
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                    try {
+                        Lib.log.appendLog("unzipping " + entry.toString());
+                        writeEntry(entry, destFile, tracker.entry(entry.getName(), entry.getSize()));
+                    } catch (IOException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("CADI unzip " + count.incrementAndGet());
+                return t;
+            }
+        }, null, false);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        if (failure.get() != null) {
+            tracker.finish();
+            throw failure.get();
+        }
+        tracker.complete();
+        tracker.finish();
         return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * writeEntry inflates one entry into its destination file. The
+     * destination folder must exist.
+     */
+    private void writeEntry(ZipEntry entry, File destFile, ProgressTracker.Entry progress) throws IOException {
+        long size = entry.getSize();
+        Checksums.Digest digest = new Checksums.Digest(Checksums.Algorithm.CRC32);
+        if (size < LARGE_ENTRY) {
+            try (InputStream is = zip.getInputStream(entry);
+                    FileOutputStream fos = new FileOutputStream(destFile)) {
+                byte data[] = new byte[BUFFER];
+                int currentByte;
+                while ((currentByte = is.read(data, 0, BUFFER)) != -1) {
+                    fos.write(data, 0, currentByte);
+                    digest.update(data, 0, currentByte);
+                    progress.advance(currentByte);
+                }
+            }
+            verifyEntry(entry, destFile, digest);
+            return;
+        }
+        try (InputStream is = zip.getInputStream(entry);
+                RandomAccessFile raf = new RandomAccessFile(destFile, "rw")) {
+            raf.setLength(size);
+            byte data[] = new byte[LARGE_BUFFER];
+            long written = 0;
+            int currentByte;
+            while ((currentByte = is.read(data, 0, LARGE_BUFFER)) != -1) {
+                raf.write(data, 0, currentByte);
+                digest.update(data, 0, currentByte);
+                written += currentByte;
+                progress.advance(currentByte);
+            }
+            if (written != size) {
+                raf.setLength(written);
+            }
+        }
+        verifyEntry(entry, destFile, digest);
+    }
+
+    /**
+     * verifyEntry compares what was written for an entry with the size and
+     * CRC-32 in the zip's central directory. ZipFile does not check either
+     * itself, so without this a damaged archive silently yields damaged
+     * files. The file is deleted on a mismatch.
+     *
+     * @param entry entry just written
+     * @param destFile the file it was written to
+     * @param digest CRC-32 of the bytes written
+     * @throws ZipException if the size or CRC-32 differ
+     */
+    private static void verifyEntry(ZipEntry entry, File destFile, Checksums.Digest digest) throws ZipException {
+        long size = entry.getSize();
+        long crc = entry.getCrc();
+        if ((size == -1 || digest.length() == size) && (crc == -1 || digest.crc32() == crc)) {
+            return;
+        }
+        destFile.delete();
+        String message = "@checksumMismatch " + entry.getName() + " expected CRC-32 " + Long.toHexString(crc) + " of " + size
+                + " bytes but was " + Long.toHexString(digest.crc32()) + " of " + digest.length() + " bytes";
+        Lib.log.appendLog(message);
+        throw new ZipException(message);
+    }
+
     /**
      * Unzips a resource.
      * <p>
@@ -144,10 +440,29 @@ public class Unzip {
      *
      */
     public static void unZipResource(String zipResource, String outputFolder) throws FileNotFoundException, IOException {
-        InputStream zStream;
-        zStream = new CADI.Lib().getClass().getResourceAsStream(zipResource);
-        unZipInputStream(zStream, outputFolder);
-        zStream.close();
+        unZipResource(zipResource, outputFolder, null);
+    }
+
+    /**
+     * Unzips a resource, reporting progress to a listener.
+     *
+     * @param zipResource name of the java resource to be unzipped
+     * @param outputFolder folder to unzip to
+     * @param listener receives progress, may be null
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see ProgressListener
+     */
+    public static void unZipResource(String zipResource, String outputFolder, ProgressListener listener) throws FileNotFoundException, IOException {
+        InputStream zStream = Unzip.class.getResourceAsStream(zipResource);
+        if (zStream == null) {
+            throw new FileNotFoundException("@resourceNotFound " + zipResource);
+        }
+        try {
+            unZipInputStream(zStream, outputFolder, false, listener);
+        } finally {
+            zStream.close();
+        }
     }
 
     /**
@@ -167,15 +482,70 @@ public class Unzip {
      * @see ZipFile
      */
     public static void unZipInputStream(InputStream zStream, String outputFolder) throws FileNotFoundException, IOException {
+        unZipInputStream(zStream, outputFolder, false);
+    }
+
+    /**
+     * Unzips an InputStream, optionally rewriting only what changed since
+     * the previous extraction into the same folder.
+     * <p>
+     * Incremental mode works as in unzipFile(String, boolean). An entry
+     * whose local header does not carry its size and CRC-32 is always
+     * rewritten, since a stream cannot look ahead at the central directory.
+     *
+     * @param zStream input stream to unzip
+     * @param outputFolder output folder to unzip to
+     * @param incremental true to skip unchanged entries
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see Manifest
+     */
+    public static void unZipInputStream(InputStream zStream, String outputFolder, boolean incremental) throws FileNotFoundException, IOException {
+        unZipInputStream(zStream, outputFolder, incremental, null);
+    }
+
+    /**
+     * Unzips an InputStream, reporting progress to a listener. A stream
+     * does not tell its total size up front, so progress reports no total
+     * and no remaining time.
+     *
+     * @param zStream input stream to unzip
+     * @param outputFolder output folder to unzip to
+     * @param incremental true to skip unchanged entries
+     * @param listener receives progress, may be null
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @see ProgressListener
+     */
+    public static void unZipInputStream(InputStream zStream, String outputFolder, boolean incremental, ProgressListener listener) throws FileNotFoundException, IOException {
 
         zStream.mark(0);
-        ZipInputStream zipInputStream;
+        Manifest previous = incremental ? Manifest.read(new File(outputFolder)) : null;
+        Manifest current = new Manifest();
+        ProgressTracker tracker = ProgressTracker.start(listener, outputFolder, -1);
+        try {
+            unZipEntries(zStream, outputFolder, previous, current, tracker);
+            finishIncremental(previous, current, new File(outputFolder));
+            tracker.complete();
+        } finally {
+            tracker.finish();
+        }
+        Lib.log.appendLog("Important Information");
+        Lib.log.appendLog("Unzip Complete");
+    }
 
+    private static void unZipEntries(InputStream zStream, String outputFolder, Manifest previous, Manifest current, ProgressTracker tracker) throws IOException {
+        ZipInputStream zipInputStream;
         ZipEntry zipEntry;
         zipInputStream = new ZipInputStream(zStream);
         while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-            Lib.log.appendLog("Unzipping " + zipEntry.getName());
             File EntryFile = new File(outputFolder + System.getProperty("file.separator") + zipEntry.getName());
+            if (previous != null && !zipEntry.isDirectory() && previous.isCurrent(zipEntry, EntryFile)) {
+                current.keep(previous, zipEntry.getName());
+                tracker.skip(zipEntry.getSize());
+                continue;
+            }
+            Lib.log.appendLog("Unzipping " + zipEntry.getName());
             if (zipEntry.isDirectory()) {
                 EntryFile.mkdirs();
                 continue;
@@ -193,33 +563,34 @@ public class Unzip {
             BufferedInputStream BufferedInputStream = new BufferedInputStream(zipInputStream);
             BufferedOutputStream Destination;
             Destination = new BufferedOutputStream(FileOut);
-            int numberOfCycles = (int) (zipEntry.getSize() / BUFFER);
-            boolean updatePercent = false;
-            if (numberOfCycles > 0) {
-                updatePercent = true;
-            }
-            BigInteger currentCycle = BigInteger.valueOf(0);
-            while ((currentByte = BufferedInputStream.read(data, 0, BUFFER)) != -1) {
-                Destination.write(data, 0, currentByte);
+            ProgressTracker.Entry progress = tracker.entry(currentEntry, zipEntry.getSize());
+            try {
+                //ZipInputStream checks the size and CRC-32 as the entry ends
+                while ((currentByte = BufferedInputStream.read(data, 0, BUFFER)) != -1) {
+                    Destination.write(data, 0, currentByte);
+                    progress.advance(currentByte);
+                }
+            } catch (ZipException ex) {
+                Destination.close();
+                DestFile.delete();
+                Lib.log.appendLog("@checksumMismatch " + currentEntry + " " + ex.getLocalizedMessage());
+                throw ex;
             }
             Destination.flush();
             Destination.close();
+            current.put(zipEntry, DestFile); //size and CRC are known once the entry was read
         }
-        Lib.log.appendLog("Important Information");
-        Lib.log.appendLog("Unzip Complete");
     }
 
     /**
      * Closes the zip file
      * <p>
-     * Should be called after all file operations have been completed in Unzip
+     * Should be called after all file operations have been completed in Unzip.
+     * The ZipFile is closed once no other Unzip of the same file is using it,
+     * so the file may then be deleted or replaced.
      */
     public void close() {
-        try {
-            zip.close();
-        } catch (IOException ex) {
-            Lib.log.appendLog(ex.getLocalizedMessage());
-        }
+        reader.closeArchive();
     }
 
     /**
@@ -236,8 +607,13 @@ public class Unzip {
     public String deployFileFromZip(Object entry, String outputFolder) throws ZipException, IOException {
 
         ZipEntry zipEntry = new ZipEntry((ZipEntry) entry);
-        writeFromZipToFile(zip, zipEntry, outputFolder);
-        zip.close();
+        ProgressTracker tracker = ProgressTracker.start(progressListener, zip.getName(), zipEntry.getSize());
+        try {
+            writeFromZipToFile(zip, zipEntry, outputFolder, tracker);
+            tracker.complete();
+        } finally {
+            tracker.finish();
+        }
         return outputFolder + entry.toString();
     }
 
@@ -245,7 +621,8 @@ public class Unzip {
      * Gets a stream of a specified file from a zip.
      * <p>
      * Static method used to stream a file form a zip that is not an Unzip
-     * object.
+     * object. The zip is taken from the shared ArchivePool and given back
+     * when the stream is closed.
      *
      * @param zipFile file to stream from
      * @param entry entry to stream
@@ -254,11 +631,10 @@ public class Unzip {
      * @throws IOException
      */
     public static BufferedInputStream streamFileFromZip(File zipFile, Object entry) throws ZipException, IOException {
-        ZipFile zip = new ZipFile(zipFile);
-        return new BufferedInputStream(zip.getInputStream((ZipEntry) entry));
+        return new BufferedInputStream(ArchivePool.shared().openStream(zipFile, ((ZipEntry) entry).getName()));
     }
 
-    private void writeFromZipToFile(ZipFile zip, ZipEntry entry, String filePathToWrite) throws IOException, FileNotFoundException {
+    private void writeFromZipToFile(ZipFile zip, ZipEntry entry, String filePathToWrite, ProgressTracker tracker) throws IOException, FileNotFoundException {
         //if (Static)
         BufferedInputStream is;
         is = new BufferedInputStream(zip.getInputStream(entry));
@@ -266,16 +642,22 @@ public class Unzip {
         // establish buffer for writing file
         byte data[] = new byte[BUFFER];
         // write the current file to disk
-        FileOutputStream fos = new FileOutputStream(new File(filePathToWrite + entry));
+        File destFile = new File(filePathToWrite + entry);
+        FileOutputStream fos = new FileOutputStream(destFile);
         BufferedOutputStream dest;
         dest = new BufferedOutputStream(fos, BUFFER);
         // read and write until last byte is encountered
+        ProgressTracker.Entry progress = tracker.entry(entry.getName(), entry.getSize());
+        Checksums.Digest digest = new Checksums.Digest(Checksums.Algorithm.CRC32);
         while ((currentByte = is.read(data, 0, BUFFER)) != -1) {
             dest.write(data, 0, currentByte);
+            digest.update(data, 0, currentByte);
+            progress.advance(currentByte);
         }
         dest.flush();
         dest.close();
         is.close();
+        verifyEntry(entry, destFile, digest);
     }
 
     /**
@@ -308,6 +690,16 @@ public class Unzip {
 
     }
 
+    /**
+     * Looks up an entry by name without walking zipFileEntries.
+     *
+     * @param name entry name as stored in the zip
+     * @return the ZipEntry, or null if the zip has no such entry
+     */
+    public ZipEntry getEntry(String name) {
+        return reader.getEntry(name);
+    }
+
     /**
      * Takes in an ZipEntry as an object and returns the ZipEntry for the
      * Object.
@@ -319,4 +711,204 @@ public class Unzip {
     public ZipEntry getEntry(Object entry) {
         return (ZipEntry) entry;
     }
+
+    /**
+     * ProgressListener is told how an extraction is getting on. Updates are
+     * taken at most every 100ms and delivered on a background thread; while
+     * the listener is busy newer updates replace older ones, so a slow
+     * listener never slows the extraction. The last update of every
+     * extraction has finished set, and failed as well if the extraction
+     * threw.
+     */
+    public interface ProgressListener {
+
+        void progress(Progress progress);
+    }
+
+    /**
+     * Progress is a snapshot of one extraction. Sizes are in bytes, -1 when
+     * unknown.
+     */
+    public static final class Progress {
+
+        public final String archive;
+
+        /**
+         * entry is the entry being written, null in the final update.
+         */
+        public final String entry;
+        public final long entryBytes;
+        public final long entrySize;
+
+        /**
+         * bytes is the number of bytes written so far, counting unchanged
+         * entries skipped by an incremental extraction as written.
+         */
+        public final long bytes;
+        public final long totalBytes;
+        public final long elapsedNanos;
+        public final boolean finished;
+
+        /**
+         * failed is set in the final update of an extraction which threw.
+         */
+        public final boolean failed;
+
+        Progress(String archive, String entry, long entryBytes, long entrySize, long bytes, long totalBytes, long elapsedNanos, boolean finished, boolean failed) {
+            this.archive = archive;
+            this.entry = entry;
+            this.entryBytes = entryBytes;
+            this.entrySize = entrySize;
+            this.bytes = bytes;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.finished = finished;
+            this.failed = failed;
+        }
+
+        /**
+         * @return average throughput since the extraction started
+         */
+        public long bytesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : (long) (bytes * 1e9 / elapsedNanos);
+        }
+
+        /**
+         * @return estimated milliseconds until the extraction is done, -1 if
+         * the total size is unknown or nothing was written yet
+         */
+        public long remainingMillis() {
+            long rate = bytesPerSecond();
+            if (finished) {
+                return 0;
+            }
+            if (totalBytes < 0 || rate <= 0) {
+                return -1;
+            }
+            return Math.max(0, (totalBytes - bytes) * 1000 / rate);
+        }
+
+        /**
+         * @return percentage done, -1 if the total size is unknown
+         */
+        public int percent() {
+            if (finished && !failed) {
+                return 100;
+            }
+            return totalBytes <= 0 ? -1 : (int) Math.min(100, bytes * 100 / totalBytes);
+        }
+
+        @Override
+        public String toString() {
+            return (finished ? (failed ? "failed " : "done ") : entry + " " + entryBytes + "/" + entrySize + " ") + bytes + "/" + totalBytes
+                    + " bytes " + bytesPerSecond() / 1024 + " KiB/s eta " + remainingMillis() + "ms";
+        }
+    }
+
+    /**
+     * Manifest records what an extraction wrote into a folder: for every
+     * file its zip entry name, CRC-32 and size, and the size and
+     * modification time of the file on disk. It is kept in the folder itself
+     * as a tab separated text file named NAME.
+     */
+    static final class Manifest {
+
+        static final String NAME = ".cadi-unzip";
+
+        private static final class Record {
+
+            final long crc;
+            final long size;
+            final long modified;
+
+            Record(long crc, long size, long modified) {
+                this.crc = crc;
+                this.size = size;
+                this.modified = modified;
+            }
+        }
+
+        private final LinkedHashMap<String, Record> records = new LinkedHashMap<>();
+        int kept;
+
+        /**
+         * read loads a folder's Manifest.
+         *
+         * @param folder extraction folder
+         * @return the Manifest, empty if there is none or it is unreadable
+         */
+        static Manifest read(File folder) {
+            Manifest manifest = new Manifest();
+            File file = new File(folder, NAME);
+            if (!file.isFile()) {
+                return manifest;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length == 4) {
+                        manifest.records.put(fields[3], new Record(Long.parseLong(fields[0], 16), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                    }
+                }
+            } catch (IOException | NumberFormatException ex) {
+                Lib.log.appendLog("Unzip ignoring unreadable " + file + " " + ex.getLocalizedMessage());
+                manifest.records.clear();
+            }
+            return manifest;
+        }
+
+        int size() {
+            return records.size();
+        }
+
+        /**
+         * isCurrent reports whether an entry was extracted with the same
+         * size and CRC-32 and its file has not been touched since.
+         */
+        boolean isCurrent(ZipEntry entry, File file) {
+            Record record = records.get(entry.getName());
+            return record != null && entry.getCrc() != -1 && entry.getSize() != -1
+                    && record.crc == entry.getCrc() && record.size == entry.getSize()
+                    && file.isFile() && file.length() == record.size && file.lastModified() == record.modified;
+        }
+
+        void put(ZipEntry entry, File file) {
+            records.put(entry.getName(), new Record(entry.getCrc(), entry.getSize(), file.lastModified()));
+        }
+
+        void keep(Manifest previous, String name) {
+            records.put(name, previous.records.get(name));
+            kept++;
+        }
+
+        /**
+         * removeStale deletes the files this Manifest recorded which the
+         * newer extraction no longer contains.
+         *
+         * @return number of files deleted
+         */
+        int removeStale(Manifest current, File folder) {
+            int removed = 0;
+            for (String name : records.keySet()) {
+                if (!current.records.containsKey(name) && new File(folder, name).delete()) {
+                    Lib.log.appendLog("Unzip removed stale " + name);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        void write(File folder) throws IOException {
+            File partial = new File(folder, NAME + ".partial");
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Record> e : records.entrySet()) {
+                    Record r = e.getValue();
+                    out.write(Long.toHexString(r.crc) + "\t" + r.size + "\t" + r.modified + "\t" + e.getKey());
+                    out.write('\n');
+                }
+            }
+            Files.move(partial.toPath(), new File(folder, NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 }
@@ -0,0 +1,367 @@
+/**
+ * *****************************************************************************
+ * This file is part of CADI a library of CASUAL.
+ *
+ * Copyright (C) 2014 Jeremy R. Loper <jrloper@gmail.com>
+ *
+ * CADI is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * CADI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ ******************************************************************************
+ */
+package CADI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * UsbIds is a lookup service for USB vendor and product names, loaded lazily
+ * from the bundled usb.ids style resource on first use.
+ * <p>
+ * Vendor names are found through a direct 65536 slot table indexed by VID.
+ * Product names are found through an open-addressed hash table keyed by
+ * (VID &lt;&lt; 16 | PID) stored in primitive int arrays, so a lookup never
+ * scans or allocates. A sorted index of lower case vendor names supports
+ * reverse lookup and prefix search.
+ */
+public final class UsbIds {
+
+    private static final String RESOURCE = "/CADI/resource/usb.ids";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Holder defers loading until the first lookup.
+     */
+    private static final class Holder {
+
+        static final UsbIds INSTANCE = load();
+    }
+
+    /**
+     * vendorSlot maps a VID to 1 + its index in names, 0 meaning unknown.
+     * Vendor and product names share names, so the index needs an int.
+     */
+    private final int[] vendorSlot = new int[65536];
+    private int[] productKeys;
+    private int[] productValues;
+    private int productMask;
+    private int productCount;
+    private final ArrayList<String> names = new ArrayList<>();
+
+    /**
+     * sortedNames holds distinct lower case vendor names in order, with the
+     * VIDs registered under each name at the same index of namedVids.
+     */
+    private String[] sortedNames;
+    private int[][] namedVids;
+
+    private UsbIds() {
+        allocateProducts(1024);
+    }
+
+    /**
+     * @return the shared UsbIds instance, loading it on first call
+     */
+    public static UsbIds get() {
+        return Holder.INSTANCE;
+    }
+
+    private static UsbIds load() {
+        UsbIds ids = new UsbIds();
+        try {
+            ids.parse(read(UsbIds.class.getResource(RESOURCE)));
+        } catch (IOException ex) {
+            Lib.log.appendLog("UsbIds() could not load " + RESOURCE + ": " + ex.getLocalizedMessage());
+        }
+        ids.index();
+        return ids;
+    }
+
+    /**
+     * read memory maps the resource when it lives on disk and reads it into
+     * memory when it is packed inside a jar.
+     */
+    private static ByteBuffer read(URL url) throws IOException {
+        if (url == null) {
+            throw new IOException("resource not found");
+        }
+        if ("file".equals(url.getProtocol())) {
+            try (RandomAccessFile raf = new RandomAccessFile(new File(url.toURI()), "r")) {
+                FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            byte[] data = new byte[8192];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                out.write(data, 0, read);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+    }
+
+    /**
+     * parse reads vendor lines ("04e8  Samsung") and the tab indented
+     * product lines which follow them. Sections after the vendor list (device
+     * classes, languages...) begin with a keyword and stop the parse.
+     */
+    private void parse(ByteBuffer buffer) {
+        byte[] line = new byte[512];
+        int vendor = -1;
+        while (buffer.hasRemaining()) {
+            int length = 0;
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (b != '\r' && length < line.length) {
+                    line[length++] = b;
+                }
+            }
+            if (length == 0 || line[0] == '#') {
+                continue;
+            }
+            boolean product = line[0] == '\t';
+            int at = product ? 1 : 0;
+            if (product && length > 1 && line[1] == '\t') {
+                continue; //interface lines are not used
+            }
+            int id = hex4(line, at, length);
+            if (id < 0) {
+                if (!product) {
+                    break; //C, AT, HID... sections follow the vendor list
+                }
+                continue;
+            }
+            int nameStart = at + 4;
+            while (nameStart < length && (line[nameStart] == ' ' || line[nameStart] == '\t')) {
+                nameStart++;
+            }
+            String name = new String(line, nameStart, length - nameStart, UTF8);
+            if (product) {
+                if (vendor >= 0) {
+                    putProduct((vendor << 16) | id, addName(name));
+                }
+            } else {
+                vendor = id;
+                vendorSlot[id] = addName(name) + 1;
+            }
+        }
+    }
+
+    private static int hex4(byte[] line, int at, int length) {
+        if (at + 4 > length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = at; i < at + 4; i++) {
+            int d = Character.digit(line[i], 16);
+            if (d < 0) {
+                return -1;
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    private int addName(String name) {
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    private void allocateProducts(int capacity) {
+        productKeys = new int[capacity];
+        productValues = new int[capacity];
+        productMask = capacity - 1;
+    }
+
+    /**
+     * putProduct stores 1 + name index under the packed key. A value of 0
+     * marks an empty slot, which leaves every key (including 0) usable.
+     */
+    private void putProduct(int key, int nameIndex) {
+        if ((productCount + 1) * 4 > productKeys.length * 3) {
+            int[] keys = productKeys;
+            int[] values = productValues;
+            allocateProducts(keys.length * 2);
+            productCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != 0) {
+                    putProduct(keys[i], values[i] - 1);
+                }
+            }
+        }
+        int slot = mix(key) & productMask;
+        while (productValues[slot] != 0 && productKeys[slot] != key) {
+            slot = (slot + 1) & productMask;
+        }
+        if (productValues[slot] == 0) {
+            productCount++;
+        }
+        productKeys[slot] = key;
+        productValues[slot] = nameIndex + 1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void index() {
+        HashMap<String, int[]> byName = new HashMap<>();
+        for (int vid = 0; vid < vendorSlot.length; vid++) {
+            if (vendorSlot[vid] != 0) {
+                String key = names.get(vendorSlot[vid] - 1).toLowerCase(Locale.ENGLISH);
+                int[] vids = byName.get(key);
+                if (vids == null) {
+                    vids = new int[]{vid};
+                } else {
+                    vids = Arrays.copyOf(vids, vids.length + 1);
+                    vids[vids.length - 1] = vid;
+                }
+                byName.put(key, vids);
+            }
+        }
+        sortedNames = byName.keySet().toArray(new String[byName.size()]);
+        Arrays.sort(sortedNames);
+        namedVids = new int[sortedNames.length][];
+        for (int i = 0; i < sortedNames.length; i++) {
+            namedVids[i] = byName.get(sortedNames[i]);
+        }
+    }
+
+    /**
+     * vendorName looks up a vendor by VID.
+     *
+     * @param vid USB vendor ID (0 - 0xFFFF)
+     * @return vendor name, or null if unknown
+     */
+    public String vendorName(int vid) {
+        if (vid < 0 || vid > 0xFFFF || vendorSlot[vid] == 0) {
+            return null;
+        }
+        return names.get(vendorSlot[vid] - 1);
+    }
+
+    /**
+     * productName looks up a product by VID and PID.
+     *
+     * @param vid USB vendor ID (0 - 0xFFFF)
+     * @param pid USB product ID (0 - 0xFFFF)
+     * @return product name, or null if unknown
+     */
+    public String productName(int vid, int pid) {
+        if (vid < 0 || vid > 0xFFFF || pid < 0 || pid > 0xFFFF) {
+            return null;
+        }
+        int key = (vid << 16) | pid;
+        int slot = mix(key) & productMask;
+        while (productValues[slot] != 0) {
+            if (productKeys[slot] == key) {
+                return names.get(productValues[slot] - 1);
+            }
+            slot = (slot + 1) & productMask;
+        }
+        return null;
+    }
+
+    /**
+     * label builds a human readable label such as "Google Nexus 4 (debug)",
+     * falling back to the hexadecimal IDs for unknown devices.
+     *
+     * @param vid USB vendor ID
+     * @param pid USB product ID
+     * @return label for logs and UI
+     */
+    public String label(int vid, int pid) {
+        String vendor = vendorName(vid);
+        String product = productName(vid, pid);
+        if (vendor == null) {
+            return String.format("%04X:%04X", vid & 0xFFFF, pid & 0xFFFF);
+        }
+        return product == null ? vendor + String.format(" %04X", pid & 0xFFFF) : vendor + " " + product;
+    }
+
+    /**
+     * vendorIds finds every VID registered under a vendor name, ignoring
+     * case.
+     *
+     * @param vendorName vendor name
+     * @return matching VIDs in ascending order, empty if none
+     */
+    public int[] vendorIds(String vendorName) {
+        int at = Arrays.binarySearch(sortedNames, vendorName.toLowerCase(Locale.ENGLISH));
+        return at < 0 ? new int[0] : namedVids[at].clone();
+    }
+
+    /**
+     * vendorIdsByPrefix finds every VID whose vendor name starts with the
+     * given prefix, ignoring case.
+     *
+     * @param prefix start of a vendor name
+     * @return matching VIDs in ascending order, empty if none
+     */
+    public int[] vendorIdsByPrefix(String prefix) {
+        String key = prefix.toLowerCase(Locale.ENGLISH);
+        int at = Arrays.binarySearch(sortedNames, key);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        int count = 0;
+        for (int i = at; i < sortedNames.length && sortedNames[i].startsWith(key); i++) {
+            count += namedVids[i].length;
+        }
+        int[] vids = new int[count];
+        count = 0;
+        for (int i = at; i < sortedNames.length && sortedNames[i].startsWith(key); i++) {
+            System.arraycopy(namedVids[i], 0, vids, count, namedVids[i].length);
+            count += namedVids[i].length;
+        }
+        Arrays.sort(vids);
+        return vids;
+    }
+
+    /**
+     * @return number of vendors known
+     */
+    public int vendorCount() {
+        int count = 0;
+        for (int[] vids : namedVids) {
+            count += vids.length;
+        }
+        return count;
+    }
+
+    /**
+     * @return number of products known
+     */
+    public int productCount() {
+        return productCount;
+    }
+}